@@ -0,0 +1,35 @@
+#!/bin/sh
+
+# Builds the JMH benchmarks in benchmarks/, runs them with the GC profiler
+# and prints the throughput and bytes allocated per op of each.
+# usage: ./bench.sh [jmh options...], e.g. ./bench.sh Evaluator -f 1
+
+set -e
+mvn -B -q install
+mvn -B -q -f benchmarks/pom.xml package
+export MALLOW_PATH="$(pwd)"
+results=/tmp/mallow-bench.csv
+java -Duser.language=en -jar benchmarks/target/benchmarks.jar -foe true -prof gc -rf csv -rff "$results" "$@"
+
+# one row per benchmark and parameters: the score, then its gc.alloc.rate.norm row
+echo
+awk -F, '
+    NR == 1 { next }
+    {
+        name = $1; gsub(/"/, "", name); sub(/^com\.github\.mallowc\./, "", name)
+        key = ""
+        for (i = 8; i <= NF; i++) { gsub(/"/, "", $i); if ($i != "") key = key " " $i }
+        if (name ~ /:gc\.alloc\.rate\.norm$/) {
+            sub(/:.*/, "", name)
+            bytes[name key] = $5
+        } else if (name !~ /:/) {
+            order[++n] = name key
+            ops[name key] = $5
+        }
+    }
+    END {
+        printf "%-48s %16s %16s\n", "Benchmark", "ops/s", "bytes/op"
+        for (i = 1; i <= n; i++) {
+            printf "%-48s %16.3f %16.0f\n", order[i], ops[order[i]], bytes[order[i]]
+        }
+    }' "$results"
@@ -0,0 +1,105 @@
+package com.github.mallowc;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Tree engine workloads. The definitions below and std.mallow are
+ * evaluated once, an op is Evaluator.eval of one call against them. Needs
+ * $MALLOW_PATH for std.mallow, bench.sh sets it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss256m")
+public class EvaluatorBenchmark {
+    static final String DEFINITIONS = "include \"std.mallow\"\n"
+            + "define fib as\n"
+            + "    lambda x . if x < 2 then x else (fib | x-1) + (fib | x-2)\n"
+            + "end\n"
+            + "define fact as\n"
+            + "    lambda x . if x = 0 then 1 else x * fact | (x-1)\n"
+            + "end\n"
+            + "define nest as\n"
+            + "    lambda n . lambda acc . if n = 0 then acc else (nest | n - 1) | pair (pair n \"x\") acc\n"
+            + "end\n"
+            + "define deep as (nest | 100000) | nil end\n";
+
+    Evaluator evaluator;
+    Enviroment env;
+    Node fib;
+    Node fib25;
+    Node fact;
+    Node mapSum;
+    MallowObject deep;
+    Sink sink;
+
+    @Setup
+    public void setup() {
+        Preprocessor preprocessor = new Preprocessor("bench.mallow");
+        preprocessor.strict = true;
+        evaluator = new Evaluator();
+        env = new Enviroment();
+        evaluator.eval(parse(preprocessor.includeText(DEFINITIONS)), env);
+        fib = parse("fib | 20");
+        fib25 = parse("fib | 25");
+        fact = parse("fact | 12");
+        mapSum = parse("sum | ((map | square) | ((range | 1) | 1000))");
+        deep = env.get("deep");
+        sink = new Sink(Writer.nullWriter());
+    }
+
+    static Node parse(String source) {
+        Parser parser = new Parser(source);
+        parser.echo = false;
+        Ast program = parser.parseProgram();
+        if (!parser.errors.isEmpty()) {
+            throw new IllegalStateException(String.join("\n", parser.errors));
+        }
+        new Optimizer().optimize(program);
+        return program;
+    }
+
+    @Benchmark
+    public MallowObject fib() {
+        return evaluator.eval(fib, env);
+    }
+
+    /*
+     * What the unboxed integer arithmetic is judged by: the bytes per op
+     * gc.alloc.rate.norm shows under -prof gc, which bench.sh always adds.
+     * Only the frame of each call should be left.
+     */
+    @Benchmark
+    public MallowObject fib25() {
+        return evaluator.eval(fib25, env);
+    }
+
+    @Benchmark
+    public MallowObject fact() {
+        return evaluator.eval(fact, env);
+    }
+
+    @Benchmark
+    public MallowObject rangeMapSum() {
+        return evaluator.eval(mapSum, env);
+    }
+
+    // a list of 100000 pairs, each itself a pair of an integer and a string
+    @Benchmark
+    public void printDeepPairs() {
+        sink.print(deep);
+    }
+}
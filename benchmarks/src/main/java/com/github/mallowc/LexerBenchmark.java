@@ -0,0 +1,44 @@
+package com.github.mallowc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// one op is every token of a generated program, through Lexer.nextToken
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark {
+    @Param({ "100", "10000" })
+    int definitions;
+
+    String source;
+
+    @Setup
+    public void setup() {
+        source = Programs.generate(definitions);
+    }
+
+    @Benchmark
+    public void nextToken(Blackhole hole) {
+        Lexer lexer = new Lexer(source);
+        Token token;
+        do {
+            token = lexer.nextToken();
+            hole.consume(token);
+        } while (token.type != TokenType.EOF);
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.mallowc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one op is lexing and parsing a whole generated program
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({ "100", "10000" })
+    int definitions;
+
+    String source;
+
+    @Setup
+    public void setup() {
+        source = Programs.generate(definitions);
+        Parser parser = new Parser(source);
+        parser.echo = false;
+        parser.parseProgram();
+        if (!parser.errors.isEmpty()) {
+            throw new IllegalStateException(String.join("\n", parser.errors));
+        }
+    }
+
+    @Benchmark
+    public Ast parseProgram() {
+        Parser parser = new Parser(source);
+        parser.echo = false;
+        return parser.parseProgram();
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.mallowc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The EvaluatorBenchmark calls with and without --profile. With profile
+ * false this is the interpreter as everyone runs it, compare it to
+ * EvaluatorBenchmark of a build before a change to the profiler hooks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss256m")
+public class ProfilerBenchmark {
+    @Param({ "false", "true" })
+    boolean profile;
+
+    Evaluator evaluator;
+    Enviroment env;
+    Node fib;
+    Node mapSum;
+
+    @Setup
+    public void setup() {
+        // each value gets a JVM of its own, this comes before any MallowObject is made
+        System.setProperty("mallow.profile", String.valueOf(profile));
+        evaluator = new Evaluator();
+        if (profile) {
+            evaluator.profiler = Profiler.current = new Profiler();
+        }
+        Preprocessor preprocessor = new Preprocessor("bench.mallow");
+        preprocessor.strict = true;
+        env = new Enviroment();
+        evaluator.eval(EvaluatorBenchmark.parse(preprocessor.includeText(EvaluatorBenchmark.DEFINITIONS)), env);
+        fib = EvaluatorBenchmark.parse("fib | 20");
+        mapSum = EvaluatorBenchmark.parse("sum | ((map | square) | ((range | 1) | 1000))");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Profiler.current = null;
+    }
+
+    @Benchmark
+    public MallowObject fib() {
+        return evaluator.eval(fib, env);
+    }
+
+    @Benchmark
+    public MallowObject rangeMapSum() {
+        return evaluator.eval(mapSum, env);
+    }
+}
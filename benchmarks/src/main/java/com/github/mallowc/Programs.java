@@ -0,0 +1,42 @@
+package com.github.mallowc;
+
+import java.util.Random;
+
+/*
+ * Generated programs for the lexer and parser benchmarks: n definitions
+ * that use every kind of expression, each followed by a puts. The same n
+ * always gives the same program.
+ */
+class Programs {
+    static String generate(int n) {
+        Random random = new Random(n);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            String callee = i == 0 ? "square" : "f" + (i - 1);
+            out.append("define f").append(i).append(" as\n");
+            switch (i % 4) {
+                case 0:
+                    out.append("    lambda x . lambda y . if x < ").append(random.nextInt(1000))
+                            .append(" then (").append(callee).append(" | x + 1) * y else x - y\n");
+                    break;
+                case 1:
+                    out.append("    lambda xs . pair (car xs) ((map | (lambda v . v mod ")
+                            .append(random.nextInt(100) + 1).append(")) | (cdr xs))\n");
+                    break;
+                case 2:
+                    out.append("    memo lambda n . if n = 0 then \"done ").append(i).append("\" else if not (n > ")
+                            .append(random.nextInt(50)).append(") then n else ").append(callee).append(" | n / 2\n");
+                    break;
+                default:
+                    out.append("    lambda s . stream s (((foldl | (lambda a . lambda b . a + b)) | ")
+                            .append(random.nextInt(10)).append(") | ((range | 1) | ").append(random.nextInt(100))
+                            .append("))\n");
+                    break;
+            }
+            out.append("end\n\n");
+            out.append("puts (").append("f").append(i).append(" | ").append(random.nextInt(100))
+                    .append(") ~= true\n\n");
+        }
+        return out.toString();
+    }
+}
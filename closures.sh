@@ -0,0 +1,30 @@
+#!/bin/sh
+
+# Runs examples/closures.mallow in a heap of 128 MB on the engines whose
+# closures copy only their free variables, and fails when it runs out of
+# memory or prints anything but examples/closures.expected.
+# usage: ./closures.sh [engine...]
+
+set -e
+./build.sh > /dev/null 2>&1
+export MALLOW_PATH="$(pwd)"
+engines="${*:-tree jit}"
+status=0
+
+for engine in $engines; do
+    start=$(date +%s%N)
+    java -Xmx128m -jar Mallow.jar --engine="$engine" examples/closures.mallow > /tmp/mallow-actual.txt 2>&1 || true
+    end=$(date +%s%N)
+    if grep -q OutOfMemoryError /tmp/mallow-actual.txt; then
+        result=OUTOFMEMORY
+        status=1
+    elif cmp -s examples/closures.expected /tmp/mallow-actual.txt; then
+        result=ok
+    else
+        result=DIFFERS
+        status=1
+    fi
+    printf "%-28s %-6s %6d ms  %s\n" examples/closures.mallow "$engine" $(( (end - start) / 1000000 )) "$result"
+done
+
+exit $status
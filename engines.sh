@@ -0,0 +1,57 @@
+#!/bin/sh
+
+# Runs every example on each engine, checks that its output matches the
+# tree engine and prints the wall time of every run. An example with a
+# .expected file next to it is checked against that file instead, on a
+# stack of 1m, the JVM's default -Xss, rather than mallow's own default.
+# A StackOverflowError always fails, and so does a run that takes longer
+# than two minutes. The flags in a .options file are passed on every run
+# of its example. The dump engine prints the example with --dump-ast and
+# runs what it printed on the tree engine.
+# usage: ./engines.sh [engine...]
+
+set -e
+./build.sh > /dev/null 2>&1
+export MALLOW_PATH="$(pwd)"
+engines="${*:-tree jit vm dump}"
+status=0
+
+for example in examples/*.mallow std/*.mallow; do
+    options=""
+    if [ -f "${example%.mallow}.options" ]; then
+        options="$(cat "${example%.mallow}.options")"
+    fi
+    if [ -f "${example%.mallow}.expected" ]; then
+        cp "${example%.mallow}.expected" /tmp/mallow-expected.txt
+        options="$options --stack-size=1m"
+    else
+        timeout 120 java -jar Mallow.jar --engine=tree $options "$example" > /tmp/mallow-expected.txt 2>&1 || true
+    fi
+    for engine in $engines; do
+        start=$(date +%s%N)
+        code=0
+        if [ "$engine" = dump ]; then
+            # what is reported before the run comes first, as in the other runs
+            timeout 120 java -jar Mallow.jar $options --dump-ast "$example" > /tmp/mallow-dump.mallow 2> /tmp/mallow-actual.txt || code=$?
+            timeout 120 java -jar Mallow.jar $options /tmp/mallow-dump.mallow >> /tmp/mallow-actual.txt 2>&1 || code=$?
+        else
+            timeout 120 java -jar Mallow.jar --engine="$engine" $options "$example" > /tmp/mallow-actual.txt 2>&1 || code=$?
+        fi
+        end=$(date +%s%N)
+        if [ $code -eq 124 ]; then
+            result=TIMEOUT
+            status=1
+        elif grep -q StackOverflowError /tmp/mallow-actual.txt; then
+            result=OVERFLOW
+            status=1
+        elif cmp -s /tmp/mallow-expected.txt /tmp/mallow-actual.txt; then
+            result=ok
+        else
+            result=DIFFERS
+            status=1
+        fi
+        printf "%-28s %-6s %6d ms  %s\n" "$example" "$engine" $(( (end - start) / 1000000 )) "$result"
+    done
+done
+
+exit $status
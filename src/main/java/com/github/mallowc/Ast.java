@@ -24,6 +24,9 @@ interface Expression extends Node {
 class Identifier implements Expression {
     Token token;
     String value;
+    // lexical address filled in by the Resolver, depth -1 means global
+    int depth = -1;
+    int slot = -1;
 
     public Identifier(Token current, String literal) {
         token = current;
@@ -132,6 +135,8 @@ class InfixExpression implements Expression {
     Expression left;
     String operator;
     Expression right;
+    // set by the Parallelizer when both operands may be evaluated at once
+    boolean parallel;
 
     public InfixExpression(Token current, String literal, Expression leftExpr) {
         token = current;
@@ -283,6 +288,10 @@ class FunctionLiteral implements Expression {
     Token token;
     Identifier parameter;
     Expression body;
+    // free variables copied into the closure, filled in by the Resolver
+    ArrayList<Identifier> captures;
+    // set by the Resolver when the lambda is the value of a define, used in --profile
+    String name;
 
     public FunctionLiteral(Token current) {
         token = current;
@@ -360,6 +369,31 @@ class PutsStmt implements Statement {
     }
 }
 
+class DirectiveStmt implements Statement {
+    // INCLUDE or PRAGMA
+    Token token;
+    String argument;
+
+    public DirectiveStmt(Token current) {
+        token = current;
+    }
+
+    @Override
+    public void statementNode() {
+
+    }
+
+    @Override
+    public String tokenLiteral() {
+        return token.literal;
+    }
+
+    @Override
+    public String string() {
+        return token.literal + " \"" + argument + "\"";
+    }
+}
+
 class NilLiteral implements Expression {
     Token token;
     @Override
@@ -388,6 +422,8 @@ class PairExpr implements Expression {
     Token token;
     Expression left;
     Expression right;
+    // set by the Parallelizer when both halves may be evaluated at once
+    boolean parallel;
 
     public PairExpr(Token current) {
         token = current;
@@ -409,6 +445,34 @@ class PairExpr implements Expression {
     }
 }
 
+// pair whose right side is evaluated when cdr first asks for it
+class StreamExpr implements Expression {
+    Token token;
+    Expression left;
+    Expression right;
+    // free variables of right, see FunctionLiteral
+    ArrayList<Identifier> captures;
+
+    public StreamExpr(Token current) {
+        token = current;
+    }
+
+    @Override
+    public void expressionNode() {
+
+    }
+
+    @Override
+    public String tokenLiteral() {
+        return token.literal;
+    }
+
+    @Override
+    public String string() {
+        return "stream " + left.string() + " " + right.string();
+    }
+}
+
 class CarExpr implements Expression {
     Token token;
     Expression list;
@@ -457,6 +521,57 @@ class CdrExpr implements Expression {
     }
 }
 
+class MemoExpr implements Expression {
+    Token token;
+    Expression function;
+    // set when the memo is the value of a define, used in --memo-stats
+    String name = "memo";
+
+    public MemoExpr(Token current) {
+        token = current;
+    }
+
+    @Override
+    public void expressionNode() {
+
+    }
+
+    @Override
+    public String tokenLiteral() {
+        return token.literal;
+    }
+
+    @Override
+    public String string() {
+        return "memo " + function.string();
+    }
+}
+
+// a function implemented in Java, see Builtins
+class NativeExpr implements Expression {
+    Token token;
+    String name;
+
+    public NativeExpr(Token current) {
+        token = current;
+    }
+
+    @Override
+    public void expressionNode() {
+
+    }
+
+    @Override
+    public String tokenLiteral() {
+        return token.literal;
+    }
+
+    @Override
+    public String string() {
+        return "native \"" + name + "\"";
+    }
+}
+
 public class Ast implements Node {
     ArrayList<Statement> statements;
 
@@ -484,3 +599,113 @@ public class Ast implements Node {
         return out.toString();
     }
 }
+
+/*
+ * Prints a program as Mallow for --dump-ast, one statement a line, which
+ * parses back to a program that runs the same and prints the same again.
+ * string() stays as it was, a function value Inspects to it.
+ */
+class AstPrinter {
+    static String print(Ast program) {
+        StringBuilder out = new StringBuilder();
+        for (Statement s : program.statements) {
+            // what a parse error left empty does nothing
+            if (s instanceof ExpressionStatement && ((ExpressionStatement) s).expr == null) {
+                continue;
+            }
+            statement(s, out);
+            out.append("\n");
+        }
+        return out.toString();
+    }
+
+    private static void statement(Statement s, StringBuilder out) {
+        if (s instanceof DefineStmt) {
+            out.append("define ").append(((DefineStmt) s).name.value).append(" as ");
+            expression(((DefineStmt) s).value, out);
+            out.append(" end");
+        } else if (s instanceof PutsStmt) {
+            out.append("puts ");
+            expression(((PutsStmt) s).value, out);
+        } else if (s instanceof ExpressionStatement) {
+            // a leading minus would carry on the statement before
+            out.append("(");
+            expression(((ExpressionStatement) s).expr, out);
+            out.append(")");
+        } else {
+            out.append(s.string());
+        }
+    }
+
+    private static void expression(Expression expr, StringBuilder out) {
+        if (expr == null) {
+            // left by a parse error
+        } else if (expr instanceof StringLiteral) {
+            out.append("\"").append(((StringLiteral) expr).value).append("\"");
+        } else if (expr instanceof NilLiteral) {
+            out.append("nil");
+        } else if (expr instanceof IntegerLiteral && ((IntegerLiteral) expr).value == Integer.MIN_VALUE) {
+            // 2147483648 does not fit the literal the minus is put in front of
+            out.append("(-2147483647 - 1)");
+        } else if (expr instanceof PrefixExpression) {
+            out.append("(").append(((PrefixExpression) expr).operator).append(" ");
+            expression(((PrefixExpression) expr).right, out);
+            out.append(")");
+        } else if (expr instanceof InfixExpression) {
+            InfixExpression e = (InfixExpression) expr;
+            out.append("(");
+            expression(e.left, out);
+            out.append(" ").append(e.operator).append(" ");
+            expression(e.right, out);
+            out.append(")");
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            out.append("(if ");
+            expression(e.conditional, out);
+            out.append(" then ");
+            expression(e.consequence, out);
+            if (e.alternative != null) {
+                out.append(" else ");
+                expression(e.alternative, out);
+            }
+            out.append(")");
+        } else if (expr instanceof FunctionLiteral) {
+            out.append("(lambda ").append(((FunctionLiteral) expr).parameter.value).append(" . ");
+            expression(((FunctionLiteral) expr).body, out);
+            out.append(")");
+        } else if (expr instanceof FunctionCall) {
+            out.append("(");
+            expression(((FunctionCall) expr).function, out);
+            out.append(" | ");
+            expression(((FunctionCall) expr).argument, out);
+            out.append(")");
+        } else if (expr instanceof PairExpr) {
+            out.append("(pair ");
+            expression(((PairExpr) expr).left, out);
+            out.append(" ");
+            expression(((PairExpr) expr).right, out);
+            out.append(")");
+        } else if (expr instanceof StreamExpr) {
+            out.append("(stream ");
+            expression(((StreamExpr) expr).left, out);
+            out.append(" ");
+            expression(((StreamExpr) expr).right, out);
+            out.append(")");
+        } else if (expr instanceof CarExpr) {
+            out.append("(car ");
+            expression(((CarExpr) expr).list, out);
+            out.append(")");
+        } else if (expr instanceof CdrExpr) {
+            out.append("(cdr ");
+            expression(((CdrExpr) expr).list, out);
+            out.append(")");
+        } else if (expr instanceof MemoExpr) {
+            out.append("(memo ");
+            expression(((MemoExpr) expr).function, out);
+            out.append(")");
+        } else {
+            // identifiers, integers, booleans and natives print as Mallow already
+            out.append(expr.string());
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.github.mallowc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Parsed programs kept on disk so that running an unchanged script skips the
+ * lexer and parser. An entry is named by a 128 bit hash of the expanded
+ * source, which already contains every included file, so a change to any
+ * input picks a different entry. Entries are written under a temporary
+ * name and moved into place, and read back through a memory mapping.
+ *
+ * An entry starts with tables of token type names, distinct strings and
+ * distinct tokens, nodes refer to their token and strings by index. Tokens
+ * are never modified after lexing, so nodes can share them.
+ */
+public class AstCache {
+    static final int MAGIC = 0x4d4c4153; // "MLAS"
+    // part of every key, bump it when the parser or the Ast classes change
+    static final int VERSION = 4;
+
+    private static final int DEFINE = 1;
+    private static final int PUTS = 2;
+    private static final int EXPRESSION = 3;
+    private static final int DIRECTIVE = 4;
+    private static final int IDENTIFIER = 10;
+    private static final int INTEGER = 11;
+    private static final int STRING = 12;
+    private static final int BOOLEAN = 13;
+    private static final int NIL = 14;
+    private static final int PREFIX = 15;
+    private static final int INFIX = 16;
+    private static final int IF = 17;
+    private static final int FUNCTION = 18;
+    private static final int CALL = 19;
+    private static final int PAIR = 20;
+    private static final int CAR = 21;
+    private static final int CDR = 22;
+    private static final int MEMO = 23;
+    private static final int NATIVE = 24;
+    private static final int STREAM = 25;
+
+    Path directory;
+    private Map<String, Integer> stringIndex;
+    private ArrayList<String> strings;
+    private Map<String, Integer> tokenIndex;
+    private ArrayList<Token> tokens;
+    private String[] stringTable;
+    private Token[] tokenTable;
+
+    public AstCache(Path dir) {
+        directory = dir;
+    }
+
+    // $MALLOW_CACHE, or ~/.cache/mallow
+    static Path defaultDirectory() {
+        String dir = System.getenv("MALLOW_CACHE");
+        if (dir != null && !dir.isEmpty()) {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("user.home"), ".cache", "mallow");
+    }
+
+    // null when there is no usable entry for this source
+    public Ast load(String source) {
+        Path file = directory.resolve(key(source));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // one bulk copy out of the mapping, then decode from the array
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Input in = new Input(new byte[mapped.remaining()]);
+            mapped.get(in.data);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            TokenType[] types = new TokenType[in.readInt()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = TokenType.valueOf(readUtf8(in));
+            }
+            stringTable = new String[in.readInt()];
+            for (int i = 0; i < stringTable.length; i++) {
+                stringTable[i] = readUtf8(in);
+            }
+            tokenTable = new Token[in.readInt()];
+            for (int i = 0; i < tokenTable.length; i++) {
+                TokenType type = types[in.readByte()];
+                tokenTable[i] = new Token(type, readString(in));
+            }
+            Ast program = new Ast();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                program.statements.add(readStatement(in));
+            }
+            return program;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // truncated or from an older build, it is replaced on the next store
+            return null;
+        } finally {
+            stringTable = null;
+            tokenTable = null;
+        }
+    }
+
+    public void store(String source, Ast program) {
+        try {
+            stringIndex = new HashMap<>();
+            strings = new ArrayList<>();
+            tokenIndex = new HashMap<>();
+            tokens = new ArrayList<>();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(program.statements.size());
+            for (Statement s : program.statements) {
+                writeStatement(out, s);
+            }
+            out.flush();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + strings.size() * 8 + 256);
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(TokenType.values().length);
+            for (TokenType type : TokenType.values()) {
+                writeUtf8(header, type.name());
+            }
+            header.writeInt(strings.size());
+            for (String string : strings) {
+                writeUtf8(header, string);
+            }
+            header.writeInt(tokens.size());
+            for (Token token : tokens) {
+                header.writeByte(token.type.ordinal());
+                header.writeInt(stringId(token.literal));
+            }
+            header.flush();
+            body.writeTo(bytes);
+
+            Files.createDirectories(directory);
+            Path file = directory.resolve(key(source));
+            Path temp = Files.createTempFile(directory, "ast", ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the cache is only an optimization, run without it
+        } finally {
+            stringIndex = null;
+            strings = null;
+            tokenIndex = null;
+            tokens = null;
+        }
+    }
+
+    /*
+     * Two independent 64 bit FNV-1a style hashes over the characters. A
+     * MessageDigest would cost more to initialize than parsing a small
+     * script, which is the case this cache exists for.
+     */
+    static String key(String source) {
+        long a = 0xcbf29ce484222325L ^ VERSION;
+        long b = 0x84222325cbf29ce4L ^ source.length();
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            a = (a ^ c) * 0x100000001b3L;
+            b = (b ^ c) * 0x9e3779b97f4a7c15L + i;
+        }
+        return hex(a) + hex(b);
+    }
+
+    private static String hex(long value) {
+        String digits = Long.toHexString(value);
+        return "0000000000000000".substring(digits.length()) + digits;
+    }
+
+    private void writeStatement(DataOutputStream out, Statement s) throws IOException {
+        if (s instanceof DefineStmt) {
+            out.writeByte(DEFINE);
+            writeToken(out, ((DefineStmt) s).token);
+            writeExpression(out, ((DefineStmt) s).name);
+            writeExpression(out, ((DefineStmt) s).value);
+        } else if (s instanceof PutsStmt) {
+            out.writeByte(PUTS);
+            writeToken(out, ((PutsStmt) s).token);
+            writeExpression(out, ((PutsStmt) s).value);
+        } else if (s instanceof DirectiveStmt) {
+            out.writeByte(DIRECTIVE);
+            writeToken(out, ((DirectiveStmt) s).token);
+            writeString(out, ((DirectiveStmt) s).argument);
+        } else {
+            out.writeByte(EXPRESSION);
+            writeToken(out, ((ExpressionStatement) s).token);
+            writeExpression(out, ((ExpressionStatement) s).expr);
+        }
+    }
+
+    private Statement readStatement(Input in) {
+        int tag = in.readByte();
+        Token token = readToken(in);
+        if (tag == DEFINE) {
+            DefineStmt stmt = new DefineStmt(token);
+            stmt.name = (Identifier) readExpression(in);
+            stmt.value = readExpression(in);
+            return stmt;
+        } else if (tag == PUTS) {
+            PutsStmt stmt = new PutsStmt(token);
+            stmt.value = readExpression(in);
+            return stmt;
+        } else if (tag == DIRECTIVE) {
+            DirectiveStmt stmt = new DirectiveStmt(token);
+            stmt.argument = readString(in);
+            return stmt;
+        }
+        ExpressionStatement stmt = new ExpressionStatement(token);
+        stmt.expr = readExpression(in);
+        return stmt;
+    }
+
+    private void writeExpression(DataOutputStream out, Expression expr) throws IOException {
+        if (expr == null) {
+            out.writeByte(0);
+        } else if (expr instanceof Identifier) {
+            out.writeByte(IDENTIFIER);
+            writeToken(out, ((Identifier) expr).token);
+            writeString(out, ((Identifier) expr).value);
+        } else if (expr instanceof IntegerLiteral) {
+            out.writeByte(INTEGER);
+            writeToken(out, ((IntegerLiteral) expr).token);
+            out.writeInt(((IntegerLiteral) expr).value);
+        } else if (expr instanceof StringLiteral) {
+            out.writeByte(STRING);
+            writeToken(out, ((StringLiteral) expr).token);
+            writeString(out, ((StringLiteral) expr).value);
+        } else if (expr instanceof BooleanLiteral) {
+            out.writeByte(BOOLEAN);
+            writeToken(out, ((BooleanLiteral) expr).token);
+            out.writeBoolean(((BooleanLiteral) expr).value);
+        } else if (expr instanceof NilLiteral) {
+            out.writeByte(NIL);
+            writeToken(out, ((NilLiteral) expr).token);
+        } else if (expr instanceof PrefixExpression) {
+            out.writeByte(PREFIX);
+            writeToken(out, ((PrefixExpression) expr).token);
+            writeString(out, ((PrefixExpression) expr).operator);
+            writeExpression(out, ((PrefixExpression) expr).right);
+        } else if (expr instanceof InfixExpression) {
+            out.writeByte(INFIX);
+            writeToken(out, ((InfixExpression) expr).token);
+            writeString(out, ((InfixExpression) expr).operator);
+            writeExpression(out, ((InfixExpression) expr).left);
+            writeExpression(out, ((InfixExpression) expr).right);
+        } else if (expr instanceof IfExpression) {
+            out.writeByte(IF);
+            writeToken(out, ((IfExpression) expr).token);
+            writeExpression(out, ((IfExpression) expr).conditional);
+            writeExpression(out, ((IfExpression) expr).consequence);
+            writeExpression(out, ((IfExpression) expr).alternative);
+        } else if (expr instanceof FunctionLiteral) {
+            out.writeByte(FUNCTION);
+            writeToken(out, ((FunctionLiteral) expr).token);
+            writeExpression(out, ((FunctionLiteral) expr).parameter);
+            writeExpression(out, ((FunctionLiteral) expr).body);
+        } else if (expr instanceof FunctionCall) {
+            out.writeByte(CALL);
+            writeToken(out, ((FunctionCall) expr).token);
+            writeExpression(out, ((FunctionCall) expr).function);
+            writeExpression(out, ((FunctionCall) expr).argument);
+        } else if (expr instanceof PairExpr) {
+            out.writeByte(PAIR);
+            writeToken(out, ((PairExpr) expr).token);
+            writeExpression(out, ((PairExpr) expr).left);
+            writeExpression(out, ((PairExpr) expr).right);
+        } else if (expr instanceof CarExpr) {
+            out.writeByte(CAR);
+            writeToken(out, ((CarExpr) expr).token);
+            writeExpression(out, ((CarExpr) expr).list);
+        } else if (expr instanceof CdrExpr) {
+            out.writeByte(CDR);
+            writeToken(out, ((CdrExpr) expr).token);
+            writeExpression(out, ((CdrExpr) expr).list);
+        } else if (expr instanceof MemoExpr) {
+            out.writeByte(MEMO);
+            writeToken(out, ((MemoExpr) expr).token);
+            writeString(out, ((MemoExpr) expr).name);
+            writeExpression(out, ((MemoExpr) expr).function);
+        } else if (expr instanceof StreamExpr) {
+            out.writeByte(STREAM);
+            writeToken(out, ((StreamExpr) expr).token);
+            writeExpression(out, ((StreamExpr) expr).left);
+            writeExpression(out, ((StreamExpr) expr).right);
+        } else if (expr instanceof NativeExpr) {
+            out.writeByte(NATIVE);
+            writeToken(out, ((NativeExpr) expr).token);
+            writeString(out, ((NativeExpr) expr).name);
+        } else {
+            throw new IOException("cannot cache " + expr.getClass().getSimpleName());
+        }
+    }
+
+    private Expression readExpression(Input in) {
+        int tag = in.readByte();
+        if (tag == 0) {
+            return null;
+        }
+        Token token = readToken(in);
+        switch (tag) {
+            case IDENTIFIER:
+                return new Identifier(token, readString(in));
+            case INTEGER: {
+                IntegerLiteral literal = new IntegerLiteral(token, "0");
+                literal.value = in.readInt();
+                return literal;
+            }
+            case STRING:
+                return new StringLiteral(token, readString(in));
+            case BOOLEAN:
+                return new BooleanLiteral(token, in.readByte() != 0);
+            case NIL:
+                return new NilLiteral(token);
+            case PREFIX: {
+                PrefixExpression expr = new PrefixExpression(token, readString(in));
+                expr.right = readExpression(in);
+                return expr;
+            }
+            case INFIX: {
+                String operator = readString(in);
+                InfixExpression expr = new InfixExpression(token, operator, readExpression(in));
+                expr.right = readExpression(in);
+                return expr;
+            }
+            case IF: {
+                IfExpression expr = new IfExpression(token);
+                expr.conditional = readExpression(in);
+                expr.consequence = readExpression(in);
+                expr.alternative = readExpression(in);
+                return expr;
+            }
+            case FUNCTION: {
+                FunctionLiteral expr = new FunctionLiteral(token);
+                expr.parameter = (Identifier) readExpression(in);
+                expr.body = readExpression(in);
+                return expr;
+            }
+            case CALL: {
+                FunctionCall expr = new FunctionCall(token, readExpression(in));
+                expr.argument = readExpression(in);
+                return expr;
+            }
+            case PAIR: {
+                PairExpr expr = new PairExpr(token);
+                expr.left = readExpression(in);
+                expr.right = readExpression(in);
+                return expr;
+            }
+            case CAR: {
+                CarExpr expr = new CarExpr(token);
+                expr.list = readExpression(in);
+                return expr;
+            }
+            case CDR: {
+                CdrExpr expr = new CdrExpr(token);
+                expr.list = readExpression(in);
+                return expr;
+            }
+            case MEMO: {
+                MemoExpr expr = new MemoExpr(token);
+                expr.name = readString(in);
+                expr.function = readExpression(in);
+                return expr;
+            }
+            case STREAM: {
+                StreamExpr expr = new StreamExpr(token);
+                expr.left = readExpression(in);
+                expr.right = readExpression(in);
+                return expr;
+            }
+            case NATIVE: {
+                NativeExpr expr = new NativeExpr(token);
+                expr.name = readString(in);
+                return expr;
+            }
+            default:
+                throw new IllegalStateException("bad node tag " + tag);
+        }
+    }
+
+    // the type table holds names, so adding a keyword does not shift old entries
+    private void writeToken(DataOutputStream out, Token token) throws IOException {
+        String key = token.type.ordinal() + ":" + token.literal;
+        Integer index = tokenIndex.get(key);
+        if (index == null) {
+            index = tokens.size();
+            tokenIndex.put(key, index);
+            tokens.add(token);
+            stringId(token.literal);
+        }
+        out.writeInt(index);
+    }
+
+    private Token readToken(Input in) {
+        return tokenTable[in.readInt()];
+    }
+
+    private void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeInt(stringId(s));
+    }
+
+    private int stringId(String s) {
+        Integer index = stringIndex.get(s);
+        if (index == null) {
+            index = strings.size();
+            stringIndex.put(s, index);
+            strings.add(s);
+        }
+        return index;
+    }
+
+    private String readString(Input in) {
+        return stringTable[in.readInt()];
+    }
+
+    private static void writeUtf8(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readUtf8(Input in) {
+        int length = in.readInt();
+        String s = new String(in.data, in.position, length, StandardCharsets.UTF_8);
+        in.position += length;
+        return s;
+    }
+
+    private static final class Input {
+        final byte[] data;
+        int position;
+
+        Input(byte[] d) {
+            data = d;
+        }
+
+        int readByte() {
+            return data[position++];
+        }
+
+        int readInt() {
+            int value = (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16
+                    | (data[position + 2] & 0xff) << 8 | (data[position + 3] & 0xff);
+            position += 4;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.github.mallowc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Function implemented in Java, reached from Mallow with native "<name>".
+ * It is curried like a lambda: every application binds one more argument
+ * and the body runs once all of them are there.
+ */
+class MallowBuiltin implements MallowObject {
+    interface Body {
+        MallowObject apply(Evaluator evaluator, MallowObject[] arguments);
+    }
+
+    final String name;
+    final int arity;
+    final Body body;
+    final MallowObject[] arguments;
+
+    public MallowBuiltin(String n, int a, Body b, MallowObject[] args) {
+        Profiler.allocated();
+        name = n;
+        arity = a;
+        body = b;
+        arguments = args;
+    }
+
+    MallowObject apply(Evaluator evaluator, MallowObject argument) {
+        if (argument instanceof Thunk) {
+            argument = ((Thunk) argument).force();
+        }
+        MallowObject[] bound = Arrays.copyOf(arguments, arguments.length + 1);
+        bound[arguments.length] = argument;
+        if (bound.length < arity) {
+            return new MallowBuiltin(name, arity, body, bound);
+        }
+        return body.apply(evaluator, bound);
+    }
+
+    // no more arguments than are still missing, the array may be handed to the body
+    MallowObject apply(Evaluator evaluator, MallowObject[] more) {
+        for (int i = 0; i < more.length; i++) {
+            if (more[i] instanceof Thunk) {
+                more[i] = ((Thunk) more[i]).force();
+            }
+        }
+        MallowObject[] bound = more;
+        if (arguments.length > 0) {
+            bound = Arrays.copyOf(arguments, arguments.length + more.length);
+            System.arraycopy(more, 0, bound, arguments.length, more.length);
+        }
+        if (bound.length < arity) {
+            return new MallowBuiltin(name, arity, body, bound);
+        }
+        return body.apply(evaluator, bound);
+    }
+
+    @Override
+    public String Type() {
+        return "function";
+    }
+
+    @Override
+    public String Inspect() {
+        return "native \"" + name + "\"";
+    }
+}
+
+/*
+ * Registry of the native functions. The prelude in std/std.mallow binds
+ * them to their usual names. Each one loops where the Mallow definition it
+ * replaces recursed, and gives the same result: nil where arithmetic on a
+ * non-integer would, and a ClassCastException where car or cdr would.
+ */
+public class Builtins {
+    private static final Map<String, MallowBuiltin> REGISTRY = new HashMap<>();
+
+    static {
+        register("range", 2, (e, args) -> range(args[0], args[1]));
+        register("length", 1, (e, args) -> length(release(args, 0)));
+        register("map", 2, (e, args) -> map(e, args[0], release(args, 1)));
+        register("filter", 2, (e, args) -> filter(e, args[0], release(args, 1)));
+        register("foldl", 3, (e, args) -> foldl(e, args[0], args[1], release(args, 2)));
+        register("take", 2, (e, args) -> take(args[0], release(args, 1)));
+        register("reverse", 1, (e, args) -> reverse(release(args, 0)));
+        register("sum", 1, (e, args) -> sum(release(args, 0)));
+        register("empty?", 1, (e, args) -> Evaluator.nativeBooleanToMallowBoolean(args[0] instanceof MallowNil));
+        register("head", 1, (e, args) -> ((MallowList) args[0]).car());
+        register("tail", 1, (e, args) -> ((MallowList) args[0]).cdr());
+        register("square", 1, (e, args) -> square(args[0]));
+        register("abs", 1, (e, args) -> abs(args[0]));
+    }
+
+    public static void register(String name, int arity, MallowBuiltin.Body body) {
+        REGISTRY.put(name, new MallowBuiltin(name, arity, body, new MallowObject[0]));
+    }
+
+    // null if there is no native function of that name
+    static MallowBuiltin lookup(String name) {
+        return REGISTRY.get(name);
+    }
+
+    /*
+     * Hands out a list argument and forgets it, so a stream that is being
+     * walked is not kept alive from its first element.
+     */
+    private static MallowObject release(MallowObject[] args, int i) {
+        MallowObject list = args[i];
+        args[i] = null;
+        return list;
+    }
+
+    private static MallowObject range(MallowObject low, MallowObject high) {
+        if (!(low instanceof MallowInteger && high instanceof MallowInteger)) {
+            return Evaluator.NIL;
+        }
+        int from = ((MallowInteger) low).value;
+        int to = ((MallowInteger) high).value;
+        if (from > to) {
+            return Evaluator.NIL;
+        }
+        // wide bounds overflow an int
+        long size = (long) to - from + 1;
+        if (size > IntStore.MAX_CAPACITY) {
+            throw new MallowError("range from " + from + " to " + to + " has too many integers");
+        }
+        IntStore store = IntStore.allocate((int) size, 0);
+        for (int i = 0; i < store.capacity(); i++) {
+            store.set(i, from + i);
+        }
+        return new IntList(store, 0);
+    }
+
+    private static MallowObject length(MallowObject list) {
+        int length = 0;
+        while (!(list instanceof MallowNil)) {
+            if (list instanceof IntList) {
+                IntList packed = (IntList) list;
+                return MallowInteger.of(length + packed.store.capacity() - packed.offset);
+            }
+            list = MallowStream.next(list);
+            length++;
+        }
+        return MallowInteger.of(length);
+    }
+
+    private static MallowObject sum(MallowObject list) {
+        int sum = 0;
+        boolean integers = true;
+        while (!(list instanceof MallowNil)) {
+            MallowObject element = ((MallowList) list).car();
+            if (element instanceof MallowInteger) {
+                sum += ((MallowInteger) element).value;
+            } else {
+                integers = false;
+            }
+            list = MallowStream.next(list);
+        }
+        return integers ? MallowInteger.of(sum) : Evaluator.NIL;
+    }
+
+    /*
+     * map, filter and take give a stream from the first cell of the list
+     * that is a stream on, one element at a time. The strict cells before
+     * it are done at once and put in front.
+     */
+    private static MallowObject map(Evaluator evaluator, MallowObject fn, MallowObject list) {
+        ArrayList<MallowObject> results = new ArrayList<>();
+        for (; !(list instanceof MallowNil); list = MallowStream.next(list)) {
+            if (list instanceof MallowStream) {
+                MallowStream stream = (MallowStream) list;
+                return build(results, new MallowStream(evaluator.applyFunc(fn, stream.car()),
+                        () -> map(evaluator, fn, stream.next())));
+            }
+            results.add(evaluator.applyFunc(fn, ((MallowList) list).car()));
+        }
+        return build(results, Evaluator.NIL);
+    }
+
+    private static MallowObject filter(Evaluator evaluator, MallowObject predicate, MallowObject list) {
+        ArrayList<MallowObject> kept = new ArrayList<>();
+        for (; !(list instanceof MallowNil); list = MallowStream.next(list)) {
+            MallowObject element = ((MallowList) list).car();
+            if (!Evaluator.isTruthy(evaluator.applyFunc(predicate, element))) {
+                continue;
+            }
+            if (list instanceof MallowStream) {
+                MallowStream stream = (MallowStream) list;
+                return build(kept, new MallowStream(element, () -> filter(evaluator, predicate, stream.next())));
+            }
+            kept.add(element);
+        }
+        return build(kept, Evaluator.NIL);
+    }
+
+    private static MallowObject take(MallowObject count, MallowObject list) {
+        int n = count instanceof MallowInteger ? ((MallowInteger) count).value : 0;
+        ArrayList<MallowObject> taken = new ArrayList<>();
+        for (; taken.size() < n && !(list instanceof MallowNil); list = MallowStream.next(list)) {
+            if (list instanceof MallowStream) {
+                MallowStream stream = (MallowStream) list;
+                int left = n - taken.size();
+                // the last element must not force the tail after it
+                return build(taken, new MallowStream(stream.car(),
+                        () -> left == 1 ? Evaluator.NIL : take(MallowInteger.of(left - 1), stream.next())));
+            }
+            taken.add(((MallowList) list).car());
+        }
+        return build(taken, Evaluator.NIL);
+    }
+
+    private static MallowObject foldl(Evaluator evaluator, MallowObject fn, MallowObject accumulator, MallowObject list) {
+        for (; !(list instanceof MallowNil); list = MallowStream.next(list)) {
+            accumulator = evaluator.applyFunc(fn, new MallowObject[] { accumulator, ((MallowList) list).car() });
+        }
+        return accumulator;
+    }
+
+    private static MallowObject reverse(MallowObject list) {
+        MallowObject reversed = Evaluator.NIL;
+        for (; !(list instanceof MallowNil); list = MallowStream.next(list)) {
+            reversed = IntList.cons(((MallowList) list).car(), reversed);
+        }
+        return reversed;
+    }
+
+    private static MallowObject square(MallowObject x) {
+        if (x instanceof MallowInteger) {
+            int value = ((MallowInteger) x).value;
+            return MallowInteger.of(value * value);
+        }
+        return Evaluator.NIL;
+    }
+
+    private static MallowObject abs(MallowObject x) {
+        if (x instanceof MallowInteger) {
+            int value = ((MallowInteger) x).value;
+            return MallowInteger.of(value > 0 ? value : -value);
+        }
+        return MallowInteger.of(0);
+    }
+
+    // the elements in order in front of tail, built from the back
+    private static MallowObject build(ArrayList<MallowObject> elements, MallowObject tail) {
+        MallowObject list = tail;
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            list = IntList.cons(elements.get(i), list);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,1114 @@
+package com.github.mallowc;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Executable tree. The Compiler turns the parsed Ast into these nodes once,
+ * so evaluation no longer has to rediscover what kind of node it is looking
+ * at or which operator an InfixExpression carries.
+ */
+abstract class Code {
+    abstract MallowObject exec(Enviroment env);
+
+    /*
+     * Evaluates to a primitive int, for use by arithmetic nodes so that
+     * intermediate results never get boxed. Throws NotAnInteger when the
+     * value is anything else, the caller then falls back to nil.
+     * Nodes that commonly feed arithmetic override this with the same body
+     * so the exec call below is not shared, and megamorphic, across them.
+     */
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+
+    static int unbox(MallowObject val) {
+        if (val instanceof MallowInteger) {
+            return ((MallowInteger) val).value;
+        }
+        throw NotAnInteger.INSTANCE;
+    }
+}
+
+final class NotAnInteger extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    static final NotAnInteger INSTANCE = new NotAnInteger();
+
+    private NotAnInteger() {
+        super(null, null, false, false);
+    }
+}
+
+class ConstantCode extends Code {
+    final MallowObject value;
+
+    public ConstantCode(MallowObject v) {
+        value = v;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return value;
+    }
+}
+
+class IntegerCode extends Code {
+    final int value;
+    final MallowInteger constant;
+
+    public IntegerCode(int v) {
+        value = v;
+        constant = MallowInteger.of(v);
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return value;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return constant;
+    }
+}
+
+class LocalCode extends Code {
+    final int slot;
+
+    public LocalCode(int s) {
+        slot = s;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return env.slots[slot];
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+class OuterCode extends Code {
+    final int depth;
+    final int slot;
+
+    public OuterCode(int d, int s) {
+        depth = d;
+        slot = s;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return env.get(depth, slot);
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+/*
+ * Lazy mode variants of LocalCode and OuterCode: a parameter bound to a
+ * Thunk is forced on first reference and the slot is overwritten with the
+ * value, so later references see a plain object.
+ */
+class ForceLocalCode extends Code {
+    final int slot;
+
+    public ForceLocalCode(int s) {
+        slot = s;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject val = env.slots[slot];
+        if (val instanceof Thunk) {
+            val = ((Thunk) val).force();
+            env.slots[slot] = val;
+        }
+        return val;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+class ForceOuterCode extends Code {
+    final int depth;
+    final int slot;
+
+    public ForceOuterCode(int d, int s) {
+        depth = d;
+        slot = s;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        for (int i = depth; i > 0; i--) {
+            env = env.outer;
+        }
+        MallowObject val = env.slots[slot];
+        if (val instanceof Thunk) {
+            val = ((Thunk) val).force();
+            env.slots[slot] = val;
+        }
+        return val;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+class DelayCode extends Code {
+    final Code value;
+
+    public DelayCode(Code v) {
+        value = v;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return new Thunk(value, env);
+    }
+}
+
+class GlobalCode extends Code {
+    final String name;
+
+    public GlobalCode(String n) {
+        name = n;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject val = env.globals.get(name);
+
+        if (val == null) {
+            throw new MallowError("identifier not found " + name);
+        }
+
+        return val;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+class NotCode extends Code {
+    final Code right;
+
+    public NotCode(Code r) {
+        right = r;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject value = right.exec(env);
+        if (value == Evaluator.TRUE) {
+            return Evaluator.FALSE;
+        } else if (value == Evaluator.FALSE) {
+            return Evaluator.TRUE;
+        } else if (value == Evaluator.NIL) {
+            return Evaluator.TRUE;
+        }
+        return Evaluator.FALSE;
+    }
+}
+
+class NegateCode extends Code {
+    final Code right;
+
+    public NegateCode(Code r) {
+        right = r;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return -right.execInt(env);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        try {
+            return MallowInteger.of(execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+abstract class BinaryCode extends Code {
+    final Code left;
+    final Code right;
+
+    public BinaryCode(Code l, Code r) {
+        left = l;
+        right = r;
+    }
+
+    /*
+     * Subclasses repeat their operand handling instead of sharing a helper
+     * here, so every call site keeps its own type profile for the JIT.
+     * When the left operand is not an integer the right one is still
+     * evaluated before giving up, in the same order the boxed path used.
+     */
+
+    // the result of this node for operands evaluated elsewhere, see ForkCode
+    abstract MallowObject combine(MallowObject l, MallowObject r);
+}
+
+class AddCode extends BinaryCode {
+    public AddCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        if (l instanceof MallowInteger && r instanceof MallowInteger) {
+            return MallowInteger.of(((MallowInteger) l).value + ((MallowInteger) r).value);
+        }
+        return Evaluator.NIL;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        int l;
+        try {
+            l = left.execInt(env);
+        } catch (NotAnInteger e) {
+            right.exec(env);
+            throw e;
+        }
+        return l + right.execInt(env);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        try {
+            return MallowInteger.of(execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+class SubCode extends BinaryCode {
+    public SubCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        if (l instanceof MallowInteger && r instanceof MallowInteger) {
+            return MallowInteger.of(((MallowInteger) l).value - ((MallowInteger) r).value);
+        }
+        return Evaluator.NIL;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        int l;
+        try {
+            l = left.execInt(env);
+        } catch (NotAnInteger e) {
+            right.exec(env);
+            throw e;
+        }
+        return l - right.execInt(env);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        try {
+            return MallowInteger.of(execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+class MulCode extends BinaryCode {
+    public MulCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        if (l instanceof MallowInteger && r instanceof MallowInteger) {
+            return MallowInteger.of(((MallowInteger) l).value * ((MallowInteger) r).value);
+        }
+        return Evaluator.NIL;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        int l;
+        try {
+            l = left.execInt(env);
+        } catch (NotAnInteger e) {
+            right.exec(env);
+            throw e;
+        }
+        return l * right.execInt(env);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        try {
+            return MallowInteger.of(execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+class DivCode extends BinaryCode {
+    public DivCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        if (l instanceof MallowInteger && r instanceof MallowInteger) {
+            return MallowInteger.of(((MallowInteger) l).value / ((MallowInteger) r).value);
+        }
+        return Evaluator.NIL;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        int l;
+        try {
+            l = left.execInt(env);
+        } catch (NotAnInteger e) {
+            right.exec(env);
+            throw e;
+        }
+        return l / right.execInt(env);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        try {
+            return MallowInteger.of(execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+class ModCode extends BinaryCode {
+    public ModCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        if (l instanceof MallowInteger && r instanceof MallowInteger) {
+            return MallowInteger.of(((MallowInteger) l).value % ((MallowInteger) r).value);
+        }
+        return Evaluator.NIL;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        int l;
+        try {
+            l = left.execInt(env);
+        } catch (NotAnInteger e) {
+            right.exec(env);
+            throw e;
+        }
+        return l % right.execInt(env);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        try {
+            return MallowInteger.of(execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+class LessCode extends BinaryCode {
+    public LessCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        if (l instanceof MallowInteger && r instanceof MallowInteger) {
+            return Evaluator.nativeBooleanToMallowBoolean(((MallowInteger) l).value < ((MallowInteger) r).value);
+        }
+        return Evaluator.NIL;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        int l;
+        try {
+            l = left.execInt(env);
+        } catch (NotAnInteger e) {
+            right.exec(env);
+            return Evaluator.NIL;
+        }
+        try {
+            return Evaluator.nativeBooleanToMallowBoolean(l < right.execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+class GreaterCode extends BinaryCode {
+    public GreaterCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        if (l instanceof MallowInteger && r instanceof MallowInteger) {
+            return Evaluator.nativeBooleanToMallowBoolean(((MallowInteger) l).value > ((MallowInteger) r).value);
+        }
+        return Evaluator.NIL;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        int l;
+        try {
+            l = left.execInt(env);
+        } catch (NotAnInteger e) {
+            right.exec(env);
+            return Evaluator.NIL;
+        }
+        try {
+            return Evaluator.nativeBooleanToMallowBoolean(l > right.execInt(env));
+        } catch (NotAnInteger e) {
+            return Evaluator.NIL;
+        }
+    }
+}
+
+class EqualCode extends BinaryCode {
+    public EqualCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return Evaluator.evalEquality(left.exec(env), right.exec(env), true);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        return Evaluator.evalEquality(l, r, true);
+    }
+}
+
+class NotEqualCode extends BinaryCode {
+    public NotEqualCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return Evaluator.evalEquality(left.exec(env), right.exec(env), false);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        return Evaluator.evalEquality(l, r, false);
+    }
+}
+
+class IfCode extends Code {
+    final Code conditional;
+    final Code consequence;
+    final Code alternative;
+
+    public IfCode(Code cond, Code cons, Code alt) {
+        conditional = cond;
+        consequence = cons;
+        alternative = alt;
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        if (Evaluator.isTruthy(conditional.exec(env))) {
+            return consequence.execInt(env);
+        }
+        return alternative.execInt(env);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        if (Evaluator.isTruthy(conditional.exec(env))) {
+            return consequence.exec(env);
+        }
+        return alternative.exec(env);
+    }
+}
+
+class LambdaCode extends Code {
+    private static final MallowObject[] NO_ARGUMENTS = new MallowObject[0];
+
+    final ArrayList<FunctionLiteral> chain;
+    final Code[] captures;
+    final Code body;
+
+    public LambdaCode(ArrayList<FunctionLiteral> c, Code[] cs, Code b) {
+        chain = c;
+        captures = cs;
+        body = b;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return new MallowFunction(chain, body, capture(captures, env), NO_ARGUMENTS);
+    }
+
+    // frame of the values a closure copies from env, see Resolver
+    static Enviroment capture(Code[] captures, Enviroment env) {
+        if (captures.length == 0) {
+            return env.globals;
+        }
+        MallowObject[] values = new MallowObject[captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            values[i] = captures[i].exec(env);
+        }
+        return env.globals.newFrame(values);
+    }
+}
+
+class CallCode extends Code {
+    final Evaluator evaluator;
+    final Code function;
+    final Code argument;
+
+    public CallCode(Evaluator e, Code fn, Code arg) {
+        evaluator = e;
+        function = fn;
+        argument = arg;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject fn = function.exec(env);
+        return evaluator.applyFunc(fn, argument.exec(env));
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+/*
+ * A call in tail position does not apply the function itself, it hands the
+ * callee back to the enclosing Evaluator.applyFunc loop so the Java stack
+ * does not grow with Mallow recursion depth.
+ */
+class TailCallCode extends Code {
+    final Code function;
+    final Code argument;
+
+    public TailCallCode(Code fn, Code arg) {
+        function = fn;
+        argument = arg;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject fn = function.exec(env);
+        return new TailCall(fn, argument.exec(env));
+    }
+}
+
+/*
+ * (f | a) | b as one node. The arguments are handed over in groups of as
+ * many as the function takes at once, see Evaluator.arity, so calling a
+ * function of two parameters binds both in one step instead of building a
+ * closure for the first. Each group is evaluated right before it is
+ * applied, the order the nested calls would evaluate it in. In tail
+ * position the last group is handed back as a TailCall.
+ */
+class MultiCallCode extends Code {
+    final Evaluator evaluator;
+    final Code function;
+    final Code[] arguments;
+    final boolean tail;
+
+    public MultiCallCode(Evaluator e, Code fn, Code[] args, boolean t) {
+        evaluator = e;
+        function = fn;
+        arguments = args;
+        tail = t;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject fn = function.exec(env);
+        int i = 0;
+        while (true) {
+            int count = Math.min(Evaluator.arity(fn), arguments.length - i);
+            boolean last = i + count == arguments.length;
+            if (count == 1) {
+                MallowObject argument = arguments[i].exec(env);
+                if (last) {
+                    return tail ? new TailCall(fn, argument) : evaluator.applyFunc(fn, argument);
+                }
+                fn = evaluator.applyFunc(fn, argument);
+            } else {
+                MallowObject[] group = new MallowObject[count];
+                for (int k = 0; k < count; k++) {
+                    group[k] = arguments[i + k].exec(env);
+                }
+                if (last) {
+                    return tail ? new TailCall(fn, group) : evaluator.applyFunc(fn, group);
+                }
+                fn = evaluator.applyFunc(fn, group);
+            }
+            i += count;
+        }
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+class PairCode extends BinaryCode {
+    public PairCode(Code l, Code r) {
+        super(l, r);
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject l = left.exec(env);
+        MallowObject r = right.exec(env);
+        return IntList.cons(l, r);
+    }
+
+    @Override
+    MallowObject combine(MallowObject l, MallowObject r) {
+        return IntList.cons(l, r);
+    }
+}
+
+/*
+ * Evaluates the right operand of a node the Parallelizer found pure as a
+ * ForkJoinTask while the current thread evaluates the left one. Every fork
+ * on the way down counts one level, below Evaluator.forkDepth levels the
+ * node runs as usual so small subproblems stay sequential.
+ */
+class ForkCode extends Code {
+    // forks above the code running on this thread
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    final Evaluator evaluator;
+    final BinaryCode node;
+
+    public ForkCode(Evaluator e, BinaryCode n) {
+        evaluator = e;
+        node = n;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        int[] depth = DEPTH.get();
+        if (depth[0] >= evaluator.forkDepth) {
+            return node.exec(env);
+        }
+        depth[0]++;
+        try {
+            Operand right = new Operand(node.right, env, depth[0]);
+            if (ForkJoinTask.inForkJoinPool()) {
+                right.fork();
+            } else {
+                evaluator.pool.execute(right);
+            }
+            MallowObject l = node.left.exec(env);
+            MallowObject r = right.join();
+            if (r == null) {
+                // the worker ran out of stack, this thread may have more
+                r = node.right.exec(env);
+            }
+            return node.combine(l, r);
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+
+    static class Operand extends RecursiveTask<MallowObject> {
+        private static final long serialVersionUID = 1L;
+        final Code code;
+        final Enviroment env;
+        final int depth;
+
+        Operand(Code c, Enviroment e, int d) {
+            code = c;
+            env = e;
+            depth = d;
+        }
+
+        @Override
+        protected MallowObject compute() {
+            // a joining worker may run this inside another task, keep its depth
+            int[] current = DEPTH.get();
+            int saved = current[0];
+            current[0] = depth;
+            try {
+                return code.exec(env);
+            } catch (StackOverflowError e) {
+                // pure, so it is safe to evaluate again on the joining thread
+                return null;
+            } finally {
+                current[0] = saved;
+            }
+        }
+    }
+}
+
+class StreamCode extends Code {
+    final Code head;
+    final Code[] captures;
+    final Code tail;
+
+    public StreamCode(Code h, Code[] cs, Code t) {
+        head = h;
+        captures = cs;
+        tail = t;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        Enviroment frame = LambdaCode.capture(captures, env);
+        return new MallowStream(head.exec(env), () -> tail.exec(frame));
+    }
+}
+
+class CarCode extends Code {
+    final Code list;
+
+    public CarCode(Code l) {
+        list = l;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return ((MallowList) list.exec(env)).car();
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+class CdrCode extends Code {
+    final Code list;
+
+    public CdrCode(Code l) {
+        list = l;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return ((MallowList) list.exec(env)).cdr();
+    }
+
+    @Override
+    int execInt(Enviroment env) {
+        return unbox(exec(env));
+    }
+}
+
+class MemoCode extends Code {
+    final Evaluator evaluator;
+    final String name;
+    final Code function;
+
+    public MemoCode(Evaluator e, String n, Code fn) {
+        evaluator = e;
+        name = n;
+        function = fn;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        return evaluator.memoize(name, function.exec(env));
+    }
+}
+
+class DefineCode extends Code {
+    final String name;
+    final Code value;
+
+    public DefineCode(String n, Code v) {
+        name = n;
+        value = v;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        DefineEvent event = new DefineEvent();
+        event.begin();
+        env.set(name, value.exec(env));
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.commit();
+        }
+        return null;
+    }
+}
+
+class PutsCode extends Code {
+    final Code value;
+
+    public PutsCode(Code v) {
+        value = v;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject result = value.exec(env);
+        env.globals.out.print(result);
+        return result;
+    }
+}
+
+class BlockCode extends Code {
+    final Code[] statements;
+
+    public BlockCode(Code[] s) {
+        statements = s;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        MallowObject obj = Evaluator.NIL;
+        for (Code s : statements) {
+            Metrics.statement();
+            obj = s.exec(env);
+        }
+        return obj;
+    }
+}
+
+public class Compiler {
+    Evaluator evaluator;
+
+    public Compiler(Evaluator e) {
+        evaluator = e;
+    }
+
+    public Code compile(Node node) {
+        return compile(node, false);
+    }
+
+    /*
+     * tail is set while compiling an expression whose value is returned
+     * straight out of a function body: the body itself and the branches of
+     * an if in that position. Calls found there become TailCallCode.
+     */
+    private Code compile(Node node, boolean tail) {
+        if (node instanceof Ast) {
+            return compileStatements(((Ast) node).statements);
+        } else if (node instanceof ExpressionStatement) {
+            return compile(((ExpressionStatement) node).expr);
+        } else if (node instanceof DefineStmt) {
+            DefineStmt stmt = (DefineStmt) node;
+            if (evaluator.profiler != null && stmt.value instanceof NativeExpr) {
+                // a native has no body to wrap in a ProfiledCode, its Java body is timed instead
+                MallowBuiltin builtin = Builtins.lookup(((NativeExpr) stmt.value).name);
+                if (builtin != null) {
+                    return new DefineCode(stmt.name.value,
+                            new ConstantCode(evaluator.profiler.profiled(stmt.name.value, builtin)));
+                }
+            }
+            return new DefineCode(stmt.name.value, compile(stmt.value));
+        } else if (node instanceof PutsStmt) {
+            return new PutsCode(compile(((PutsStmt) node).value));
+        } else if (node instanceof IntegerLiteral) {
+            return new IntegerCode(((IntegerLiteral) node).value);
+        } else if (node instanceof BooleanLiteral) {
+            return new ConstantCode(Evaluator.nativeBooleanToMallowBoolean(((BooleanLiteral) node).value));
+        } else if (node instanceof StringLiteral) {
+            return new ConstantCode(new MallowString(((StringLiteral) node).value.replace('\n', ' ')));
+        } else if (node instanceof NilLiteral) {
+            return new ConstantCode(Evaluator.NIL);
+        } else if (node instanceof Identifier) {
+            return compileIdentifier((Identifier) node);
+        } else if (node instanceof PrefixExpression) {
+            return compilePrefix((PrefixExpression) node);
+        } else if (node instanceof InfixExpression) {
+            return compileInfix((InfixExpression) node);
+        } else if (node instanceof IfExpression) {
+            IfExpression expr = (IfExpression) node;
+            Code alternative = expr.alternative != null
+                    ? compile(expr.alternative, tail)
+                    : new ConstantCode(Evaluator.NIL);
+            return new IfCode(compile(expr.conditional), compile(expr.consequence, tail), alternative);
+        } else if (node instanceof FunctionLiteral) {
+            // one function for the whole chain, matching the frame the Resolver gave it
+            ArrayList<FunctionLiteral> chain = Resolver.chain((FunctionLiteral) node);
+            Code body = compile(chain.get(chain.size() - 1).body, true);
+            if (evaluator.profiler != null && chain.get(0).name != null) {
+                body = new ProfiledCode(evaluator.profiler, evaluator.profiler.function(chain.get(0).name), body);
+            }
+            return new LambdaCode(chain, compileCaptures(chain.get(0).captures), body);
+        } else if (node instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) node;
+            if (call.function instanceof FunctionCall) {
+                return compileMultiCall(call, tail);
+            } else if (tail) {
+                return new TailCallCode(compile(call.function), compileArgument(call.argument));
+            }
+            return new CallCode(evaluator, compile(call.function), compileArgument(call.argument));
+        } else if (node instanceof PairExpr) {
+            PairExpr pair = (PairExpr) node;
+            return fork(pair.parallel, new PairCode(compile(pair.left), compile(pair.right)));
+        } else if (node instanceof StreamExpr) {
+            StreamExpr stream = (StreamExpr) node;
+            return new StreamCode(compile(stream.left), compileCaptures(stream.captures), compile(stream.right));
+        } else if (node instanceof CarExpr) {
+            return new CarCode(compile(((CarExpr) node).list));
+        } else if (node instanceof CdrExpr) {
+            return new CdrCode(compile(((CdrExpr) node).list));
+        } else if (node instanceof MemoExpr) {
+            MemoExpr memo = (MemoExpr) node;
+            return new MemoCode(evaluator, memo.name, compile(memo.function));
+        } else if (node instanceof NativeExpr) {
+            return new ConstantCode(Builtins.lookup(((NativeExpr) node).name));
+        }
+
+        // malformed input: the parser already reported an error for this node
+        return new ConstantCode(null);
+    }
+
+    private Code compileMultiCall(FunctionCall call, boolean tail) {
+        ArrayList<Code> arguments = new ArrayList<>();
+        Expression head = call;
+        while (head instanceof FunctionCall) {
+            arguments.add(0, compileArgument(((FunctionCall) head).argument));
+            head = ((FunctionCall) head).function;
+        }
+        return new MultiCallCode(evaluator, compile(head), arguments.toArray(new Code[0]), tail);
+    }
+
+    private Code compileStatements(ArrayList<Statement> statements) {
+        Code[] code = new Code[statements.size()];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = compile(statements.get(i));
+        }
+        return new BlockCode(code);
+    }
+
+    /*
+     * In lazy mode an argument is not evaluated at the call site but wrapped
+     * in a Thunk. Literals need no delaying, and a bare variable is passed
+     * along as is so a thunk bound to it is not forced just to be handed on.
+     */
+    private Code compileArgument(Expression argument) {
+        if (!evaluator.lazy) {
+            return compile(argument);
+        } else if (argument instanceof IntegerLiteral || argument instanceof StringLiteral
+                || argument instanceof BooleanLiteral || argument instanceof NilLiteral) {
+            return compile(argument);
+        } else if (argument instanceof Identifier) {
+            Identifier id = (Identifier) argument;
+            if (id.depth == 0) {
+                return new LocalCode(id.slot);
+            } else if (id.depth > 0) {
+                return new OuterCode(id.depth, id.slot);
+            }
+            return new GlobalCode(id.value);
+        }
+        return new DelayCode(compile(argument));
+    }
+
+    // a captured thunk is copied as is, forcing it later updates it for every copy
+    private Code[] compileCaptures(ArrayList<Identifier> captures) {
+        Code[] code = new Code[captures.size()];
+        for (int i = 0; i < code.length; i++) {
+            Identifier id = captures.get(i);
+            code[i] = id.depth == 0 ? new LocalCode(id.slot) : new OuterCode(id.depth, id.slot);
+        }
+        return code;
+    }
+
+    private Code compileIdentifier(Identifier id) {
+        if (evaluator.lazy && id.depth == 0) {
+            return new ForceLocalCode(id.slot);
+        } else if (evaluator.lazy && id.depth > 0) {
+            return new ForceOuterCode(id.depth, id.slot);
+        } else if (id.depth == 0) {
+            return new LocalCode(id.slot);
+        } else if (id.depth > 0) {
+            return new OuterCode(id.depth, id.slot);
+        }
+        return new GlobalCode(id.value);
+    }
+
+    private Code compilePrefix(PrefixExpression expr) {
+        Code right = compile(expr.right);
+        switch (expr.operator) {
+            case "not":
+                return new NotCode(right);
+            case "-":
+                return new NegateCode(right);
+            default:
+                return new ConstantCode(Evaluator.NIL);
+        }
+    }
+
+    private Code compileInfix(InfixExpression expr) {
+        Code left = compile(expr.left);
+        Code right = compile(expr.right);
+        switch (expr.operator) {
+            case "+":
+                return fork(expr.parallel, new AddCode(left, right));
+            case "-":
+                return fork(expr.parallel, new SubCode(left, right));
+            case "*":
+                return fork(expr.parallel, new MulCode(left, right));
+            case "/":
+                return fork(expr.parallel, new DivCode(left, right));
+            case "mod":
+                return fork(expr.parallel, new ModCode(left, right));
+            case "<":
+                return fork(expr.parallel, new LessCode(left, right));
+            case ">":
+                return fork(expr.parallel, new GreaterCode(left, right));
+            case "=":
+                return fork(expr.parallel, new EqualCode(left, right));
+            case "~=":
+                return fork(expr.parallel, new NotEqualCode(left, right));
+            default:
+                return new ConstantCode(Evaluator.NIL);
+        }
+    }
+
+    private Code fork(boolean parallel, BinaryCode node) {
+        return parallel && evaluator.pool != null ? new ForkCode(evaluator, node) : node;
+    }
+}
@@ -0,0 +1,280 @@
+package com.github.mallowc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+
+/*
+ * mallow --daemon keeps a warm JVM listening on a Unix domain socket and
+ * mallow --client hands it a script instead of starting an interpreter of
+ * its own. The client sends the number of options, then each option and
+ * the source as an int length and UTF-8 bytes, and gets back frames of a kind byte, an int length and bytes: OUT and ERR
+ * carry output as it is written, EXIT carries the status instead of bytes
+ * and ends the answer.
+ *
+ * std.mallow is evaluated once at startup and every request sees its
+ * definitions, see MallowScriptEngine for how a run is kept apart from the
+ * others. Compiled scripts are kept by options and source, so a script that
+ * is run again is not parsed again. Each connection is served on a thread
+ * of its own, with the stack --stack-size asks for.
+ */
+public class Daemon {
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 3;
+    private static final String[] PRELUDE = { "std.mallow" };
+    private static final int CACHED_SCRIPTS = 256;
+
+    final MallowScriptEngine engine;
+    final Bindings prelude;
+    private final Map<String, CompiledScript> scripts = Collections.synchronizedMap(
+            new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                    return size() > CACHED_SCRIPTS;
+                }
+            });
+
+    public Daemon() {
+        engine = new MallowScriptEngine(new MallowScriptEngineFactory());
+        Enviroment env = new Enviroment();
+        for (String lib : PRELUDE) {
+            String text = new Preprocessor(lib).includeLibrary(lib);
+            if (!text.isEmpty()) {
+                new Evaluator().eval(new Parser(text).parseProgram(), env);
+                engine.preloaded.add(lib);
+            }
+        }
+        prelude = new SimpleBindings(new HashMap<String, Object>(env.store));
+    }
+
+    static Path defaultSocket() {
+        return AstCache.defaultDirectory().resolve("daemon.sock");
+    }
+
+    public void serve(Path socket) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        if (Files.exists(socket)) {
+            SocketChannel running = connect(socket);
+            if (running != null) {
+                running.close();
+                throw new MallowError("a daemon is already listening on " + socket);
+            }
+            // left behind by a daemon that was killed
+            Files.delete(socket);
+        }
+        Files.createDirectories(socket.toAbsolutePath().getParent());
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException e) {
+                // nothing left to do about it
+            }
+        }));
+        System.err.printf("listening on %s\n", socket);
+        while (true) {
+            SocketChannel client = server.accept();
+            new Thread(null, () -> handle(client), "mallow-request", Main.stackSize).start();
+        }
+    }
+
+    // the options a request carries, Main refuses the others with --client
+    static boolean carried(String arg) {
+        return arg.equals("--lazy") || arg.equals("--engine=tree") || arg.equals("--memoize-pure")
+                || arg.startsWith("--memo-size=") || arg.startsWith("--encoding=") || arg.startsWith("--stack-size=")
+                || arg.equals("--no-cache") || new Optimizer().option(arg);
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            List<String> options = new ArrayList<>();
+            for (int n = in.readInt(); n > 0; n--) {
+                options.add(readString(in));
+            }
+            String source = readString(in);
+            int status = run(options, source, out);
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, there is no one to report to
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private int run(List<String> options, String source, DataOutputStream out) {
+        for (String option : options) {
+            if (option.startsWith("--stack-size=")) {
+                // run on a thread with the stack asked for, this one has the daemon's
+                long size = Main.parseSize(option.substring("--stack-size=".length()));
+                int[] status = new int[1];
+                List<String> rest = new ArrayList<>(options);
+                rest.remove(option);
+                Thread thread = new Thread(null, () -> status[0] = run(rest, source, out), "mallow-request", size);
+                thread.start();
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return status[0];
+            }
+        }
+
+        ScriptContext context = new SimpleScriptContext();
+        context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+        context.setBindings(prelude, ScriptContext.GLOBAL_SCOPE);
+        context.setWriter(new BufferedWriter(new FrameWriter(out, OUT)));
+        PrintWriter err = new PrintWriter(new FrameWriter(out, ERR), true);
+        context.setErrorWriter(err);
+        try {
+            boolean cached = !options.contains("--no-cache");
+            String key = String.join(" ", options) + "\n" + source;
+            CompiledScript script = cached ? scripts.get(key) : null;
+            if (script == null) {
+                script = compile(options, source);
+                if (cached) {
+                    scripts.put(key, script);
+                }
+            }
+            script.eval(context);
+            return 0;
+        } catch (ScriptException e) {
+            err.println(e.getMessage());
+            return 1;
+        } catch (MallowError | IllegalArgumentException e) {
+            // a --memo-size, --encoding or --stack-size the client did not check
+            err.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    private CompiledScript compile(List<String> options, String source) throws ScriptException {
+        Optimizer optimizer = new Optimizer();
+        Evaluator evaluator = new Evaluator();
+        boolean memoizePure = false;
+        Charset charset = StandardCharsets.UTF_8;
+        for (String option : options) {
+            if (option.equals("--lazy")) {
+                evaluator.lazy = true;
+            } else if (option.equals("--memoize-pure")) {
+                memoizePure = true;
+            } else if (option.startsWith("--memo-size=")) {
+                evaluator.memoCapacity = Main.parseCount(option, 0);
+            } else if (option.startsWith("--encoding=")) {
+                charset = Charset.forName(option.substring("--encoding=".length()));
+            } else {
+                optimizer.option(option);
+            }
+        }
+        return engine.compile(source, optimizer, evaluator, memoizePure, charset);
+    }
+
+    // null when no daemon answers on socket
+    private static SocketChannel connect(Path socket) {
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // runs source with options on the daemon listening on socket, -1 if there is none
+    static int client(Path socket, List<String> options, String source) throws IOException {
+        SocketChannel channel = connect(socket);
+        if (channel == null) {
+            return -1;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(options.size());
+            for (String option : options) {
+                writeString(out, option);
+            }
+            writeString(out, source);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == EXIT) {
+                    System.out.flush();
+                    return in.readInt();
+                }
+                byte[] chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                (kind == OUT ? System.out : System.err).write(chunk);
+            }
+        }
+    }
+}
+
+// sends what is written as frames of one kind, see Daemon
+class FrameWriter extends Writer {
+    final DataOutputStream out;
+    final byte kind;
+
+    public FrameWriter(DataOutputStream o, byte k) {
+        out = o;
+        kind = k;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        byte[] bytes = new String(buffer, offset, length).getBytes(StandardCharsets.UTF_8);
+        out.writeByte(kind);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
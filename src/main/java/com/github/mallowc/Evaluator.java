@@ -1,10 +1,13 @@
 package com.github.mallowc;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 interface MallowObject {
     String Type();
@@ -12,11 +15,36 @@ interface MallowObject {
 }
 
 class Enviroment {
-    Map<String, MallowObject> store = new Hashtable<>();
-    public Enviroment() {}
+    Map<String, MallowObject> store;
+    MallowObject[] slots;
     Enviroment outer;
+    Enviroment globals;
+    // where puts writes, set on the globals
+    Sink out;
 
+    public Enviroment() {
+        this(new HashMap<>(), null);
+        out = Sink.stdout();
+    }
+
+    /*
+     * Globals that fall back to parent for names they do not define. The
+     * parent is only read, define always writes to store, so one parent can
+     * be shared by environments used on several threads at once.
+     */
+    public Enviroment(Map<String, MallowObject> s, Enviroment parent) {
+        Metrics.environment();
+        store = s;
+        outer = parent;
+        globals = this;
+    }
 
+    private Enviroment(Enviroment out, MallowObject[] s) {
+        Metrics.environment();
+        outer = out;
+        slots = s;
+        globals = out.globals;
+    }
 
     public MallowObject get(String name) {
         MallowObject obj = store.get(name);
@@ -28,15 +56,21 @@ class Enviroment {
         return obj;
     }
 
+    public MallowObject get(int depth, int slot) {
+        Enviroment env = this;
+        for (int i = depth; i > 0; i--) {
+            env = env.outer;
+        }
+        return env.slots[slot];
+    }
+
     public MallowObject set(String name, MallowObject obj) {
         store.put(name, obj);
         return obj;
     }
 
-    public Enviroment newEnclosedEnv(Enviroment out) {
-        Enviroment env = new Enviroment();
-        env.outer = out;
-        return env;
+    public Enviroment newFrame(MallowObject[] s) {
+        return new Enviroment(this, s);
     }
 
 }
@@ -54,18 +88,48 @@ class MallowString implements MallowObject {
     }
 
     public MallowString(String v) {
+        Profiler.allocated();
         value = v;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MallowString && value.equals(((MallowString) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
 }
 
 
 class MallowInteger implements MallowObject {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final MallowInteger[] CACHE = new MallowInteger[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new MallowInteger(i + CACHE_LOW);
+        }
+    }
+
     int value;
 
     public MallowInteger(int v) {
+        Profiler.allocated();
         value = v;
     }
 
+    // shared instance for small values, integers are immutable
+    static MallowInteger of(int v) {
+        if (v >= CACHE_LOW && v <= CACHE_HIGH) {
+            return CACHE[v - CACHE_LOW];
+        }
+        return new MallowInteger(v);
+    }
+
     @Override
     public String Type() {
         return "integer";
@@ -75,17 +139,62 @@ class MallowInteger implements MallowObject {
     public String Inspect() {
         return String.valueOf(value);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MallowInteger && value == ((MallowInteger) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
 }
 
+/*
+ * A chain lambda a . lambda b . body is one function of two parameters,
+ * whose body runs in a single frame holding both. Given fewer arguments
+ * than it takes, it returns a copy that keeps them, which behaves like the
+ * closure of the inner lambda would.
+ */
 class MallowFunction implements MallowObject {
     Enviroment env;
-    Expression body;
-    Identifier parameter;
+    Code body;
+    ArrayList<FunctionLiteral> chain;
+    MallowObject[] bound;
 
-    public MallowFunction(Identifier param, Expression b, Enviroment e) {
+    public MallowFunction(ArrayList<FunctionLiteral> c, Code b, Enviroment e, MallowObject[] args) {
+        Profiler.allocated();
         env = e;
-        parameter = param;
+        chain = c;
         body = b;
+        bound = args;
+    }
+
+    int remaining() {
+        return chain.size() - bound.length;
+    }
+
+    MallowObject apply(MallowObject argument) {
+        MallowObject[] next = Arrays.copyOf(bound, bound.length + 1);
+        next[bound.length] = argument;
+        if (next.length < chain.size()) {
+            return new MallowFunction(chain, body, env, next);
+        }
+        return body.exec(env.newFrame(next));
+    }
+
+    // at most remaining() arguments, the array may become the frame
+    MallowObject apply(MallowObject[] arguments) {
+        MallowObject[] next = arguments;
+        if (bound.length > 0) {
+            next = Arrays.copyOf(bound, bound.length + arguments.length);
+            System.arraycopy(arguments, 0, next, bound.length, arguments.length);
+        }
+        if (next.length < chain.size()) {
+            return new MallowFunction(chain, body, env, next);
+        }
+        return body.exec(env.newFrame(next));
     }
 
     @Override
@@ -95,19 +204,40 @@ class MallowFunction implements MallowObject {
 
     @Override
     public String Inspect() {
-        return "lambda x . " + body.string();
+        return "lambda x . " + chain.get(bound.length).body.string();
     }
 }
 
-class MallowPair implements MallowObject {
+/*
+ * A pair, or an IntList standing for a chain of them. Anything that takes
+ * lists apart goes through car and cdr and cannot tell the two apart.
+ */
+interface MallowList extends MallowObject {
+    MallowObject car();
+
+    MallowObject cdr();
+}
+
+class MallowPair implements MallowList {
     MallowObject left;
     MallowObject right;
 
     public MallowPair(MallowObject l, MallowObject r) {
+        Profiler.allocated();
         left = l;
         right = r;
     }
 
+    @Override
+    public MallowObject car() {
+        return left;
+    }
+
+    @Override
+    public MallowObject cdr() {
+        return right;
+    }
+
     @Override
     public String Type() {
         return "";
@@ -115,10 +245,193 @@ class MallowPair implements MallowObject {
 
     @Override
     public String Inspect() {
-        if (right instanceof MallowNil) {
-            return left.Inspect();
+        return Sink.inspect(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MallowList && equals(this, (MallowList) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(this);
+    }
+
+    /*
+     * Lists nest to the right, walk that spine in a loop rather than
+     * recursing. It stops at a stream, which is only equal to itself.
+     */
+    static boolean equals(MallowList list, MallowList other) {
+        Object a = list;
+        Object b = other;
+        while (a instanceof MallowList && b instanceof MallowList) {
+            if (a == b) {
+                return true;
+            }
+            if (a instanceof MallowStream || b instanceof MallowStream) {
+                return false;
+            }
+            if (a instanceof IntList && b instanceof IntList) {
+                return ((IntList) a).sameElements((IntList) b);
+            }
+            if (!Objects.equals(((MallowList) a).car(), ((MallowList) b).car())) {
+                return false;
+            }
+            a = ((MallowList) a).cdr();
+            b = ((MallowList) b).cdr();
+        }
+        return Objects.equals(a, b);
+    }
+
+    static int hash(MallowList list) {
+        int hash = 1;
+        Object tail = list;
+        while (tail instanceof MallowList && !(tail instanceof MallowStream)) {
+            hash = 31 * hash + Objects.hashCode(((MallowList) tail).car());
+            tail = ((MallowList) tail).cdr();
         }
-        return left.Inspect() + " " + right.Inspect();
+        return 31 * hash + Objects.hashCode(tail);
+    }
+}
+
+/*
+ * Pair made by stream. The tail is computed the first time cdr asks for it
+ * and kept from then on, so a stream can be consumed while it is produced,
+ * and need not end. Builtins that walk a stream use next instead, which
+ * keeps nothing: a walk started from a cell that is still referenced, say
+ * by the argument of a frame further up, then does not hold on to every
+ * cell after it. A stream is equal only to itself, as the argument of a
+ * memoized function too: comparing or hashing its elements could take
+ * forever.
+ */
+class MallowStream implements MallowList {
+    final MallowObject head;
+    private Supplier<MallowObject> delayed;
+    private MallowObject tail;
+
+    public MallowStream(MallowObject h, Supplier<MallowObject> t) {
+        Profiler.allocated();
+        head = h;
+        delayed = t;
+    }
+
+    @Override
+    public MallowObject car() {
+        return head;
+    }
+
+    @Override
+    public synchronized MallowObject cdr() {
+        if (delayed != null) {
+            tail = delayed.get();
+            delayed = null;
+        }
+        return tail;
+    }
+
+    MallowObject next() {
+        Supplier<MallowObject> pending;
+        synchronized (this) {
+            if (delayed == null) {
+                return tail;
+            }
+            pending = delayed;
+        }
+        return pending.get();
+    }
+
+    // the cdr of a list being walked once
+    static MallowObject next(MallowObject list) {
+        return list instanceof MallowStream ? ((MallowStream) list).next() : ((MallowList) list).cdr();
+    }
+
+    @Override
+    public String Type() {
+        return "";
+    }
+
+    @Override
+    public String Inspect() {
+        return Sink.inspect(this);
+    }
+}
+
+// a runtime error, reported by Main or turned into a ScriptException
+class MallowError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public MallowError(String message) {
+        super(message);
+    }
+}
+
+/*
+ * Pending call returned by a function body in tail position. Only ever seen
+ * by Evaluator.applyFunc, which keeps applying until a real value comes back.
+ */
+class TailCall implements MallowObject {
+    MallowObject function;
+    MallowObject argument;
+    // several arguments applied at once instead, see MultiCallCode
+    MallowObject[] arguments;
+
+    public TailCall(MallowObject fn, MallowObject arg) {
+        Profiler.allocated();
+        function = fn;
+        argument = arg;
+    }
+
+    public TailCall(MallowObject fn, MallowObject[] args) {
+        Profiler.allocated();
+        function = fn;
+        arguments = args;
+    }
+
+    @Override
+    public String Type() {
+        return "tailcall";
+    }
+
+    @Override
+    public String Inspect() {
+        return "tailcall";
+    }
+}
+
+/*
+ * Delayed function argument used in lazy mode. The expression is evaluated
+ * the first time the parameter it is bound to is referenced, after which
+ * the result is kept and the captured environment released.
+ */
+class Thunk implements MallowObject {
+    Code code;
+    Enviroment env;
+    MallowObject value;
+
+    public Thunk(Code c, Enviroment e) {
+        Profiler.allocated();
+        code = c;
+        env = e;
+    }
+
+    public MallowObject force() {
+        if (code != null) {
+            value = code.exec(env);
+            code = null;
+            env = null;
+        }
+        return value;
+    }
+
+    @Override
+    public String Type() {
+        return force().Type();
+    }
+
+    @Override
+    public String Inspect() {
+        return force().Inspect();
     }
 }
 
@@ -138,6 +451,16 @@ class MallowBoolean implements MallowObject {
     public String Inspect() {
         return String.valueOf(value);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MallowBoolean && value == ((MallowBoolean) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Boolean.hashCode(value);
+    }
 }
 
 class MallowNil implements MallowObject {
@@ -151,114 +474,275 @@ class MallowNil implements MallowObject {
     public String Inspect() {
         return "nil";
     }
-}
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MallowNil;
+    }
 
-public class Evaluator {
-    final MallowBoolean TRUE = new MallowBoolean(true);
-    final MallowBoolean FALSE = new MallowBoolean(false);
-    final MallowNil NIL = new MallowNil();
-    public Evaluator() {
+    @Override
+    public int hashCode() {
+        return 0;
     }
+}
 
-    public MallowObject eval(Object node, Enviroment env) {
-        if (node instanceof Ast) {
-            return evalStatement(((Ast) node).statements, env);
-        } else if (node instanceof IntegerLiteral) {
-            return new MallowInteger(((IntegerLiteral) node).value);
-        } else if (node instanceof ExpressionStatement) {
-            return eval(((ExpressionStatement) node).expr, env);
-        } else if (node instanceof BooleanLiteral) {
-            return nativeBooleanToMallowBoolean(((BooleanLiteral) node).value);
-        } else if (node instanceof PrefixExpression) {
-            MallowObject right = eval(((PrefixExpression) node).right, env);
-            return evalPrefix(((PrefixExpression) node).operator, right);
-        } else if (node instanceof InfixExpression) {
-            MallowObject left = eval(((InfixExpression) node).left, env);
-            MallowObject right = eval(((InfixExpression) node).right, env);
-            return evalInfix(left, right, ((InfixExpression) node).operator);
-        } else if (node instanceof IfExpression) {
-            return evalIfExpression((IfExpression) node, env);
-        } else if (node instanceof DefineStmt) {
-            MallowObject val = eval(((DefineStmt) node).value, env);
-            env.set(((DefineStmt) node).name.value, val);
-        } else if (node instanceof Identifier) {
-            return evalIdentifier((Identifier) node, env);
-        } else if (node instanceof FunctionLiteral) {
-            Identifier param = ((FunctionLiteral) node).parameter;
-            Expression body = ((FunctionLiteral) node).body;
-            return new MallowFunction(param, body, env);
-        } else if (node instanceof FunctionCall) {
-            MallowFunction fn = (MallowFunction) eval(((FunctionCall) node).function, env);
-            Expression argument = ((FunctionCall) node).argument;
-            MallowObject result = eval(argument, env);
-            return applyFunc(fn, eval(argument, env));
-        } else if (node instanceof PutsStmt) {
-            MallowObject result = eval(((PutsStmt) node).value, env);
-            if (result instanceof MallowPair) {
-                System.out.print("[");
-                System.out.print(result.Inspect());
-                System.out.println("]");
-            } else {
-                System.out.println(result.Inspect());
+/*
+ * Function wrapped by memo. Results are kept per argument value in a
+ * bounded cache that evicts the least recently used entry.
+ */
+class MemoFunction implements MallowObject {
+    String name;
+    MallowObject function;
+    long hits;
+    long misses;
+    private final LinkedHashMap<MallowObject, MallowObject> cache;
+
+    public MemoFunction(String n, MallowObject fn, int capacity) {
+        Profiler.allocated();
+        name = n;
+        function = fn;
+        cache = new LinkedHashMap<MallowObject, MallowObject>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MallowObject, MallowObject> eldest) {
+                return size() > capacity;
             }
-
+        };
+    }
+
+    /*
+     * Each level of recursion through a memoized function costs this frame
+     * on top of what the function itself takes, so the usual case, a miss
+     * whose body settles to a value, keeps it small and calls a
+     * MallowFunction directly instead of through Evaluator.applyOnce.
+     */
+    MallowObject apply(Evaluator evaluator, MallowObject argument) {
+        if (argument instanceof Thunk) {
+            argument = ((Thunk) argument).force();
+        }
+        MallowObject result = lookup(argument);
+        if (result != null) {
             return result;
-        } else if (node instanceof StringLiteral) {
-            return new MallowString(((StringLiteral) node).value.replace('\n', ' '));
-        } else if (node instanceof PairExpr) {
-            MallowObject left = eval(((PairExpr) node).left, env);
-            MallowObject right = eval(((PairExpr) node).right, env);
-            return new MallowPair(left, right);
-        } else if (node instanceof NilLiteral) {
-            return NIL;
-        } else if (node instanceof CarExpr) {
-            MallowPair list = (MallowPair) eval(((CarExpr) node).list, env);
-            return list.left;
-        } else if (node instanceof CdrExpr) {
-            MallowPair list = (MallowPair) eval(((CdrExpr) node).list, env);
-            return list.right;
         }
+        result = function instanceof MallowFunction ? ((MallowFunction) function).apply(argument)
+                : evaluator.applyOnce(function, argument);
+        if (memoized(result)) {
+            result = follow(evaluator, (TailCall) result);
+        } else {
+            result = evaluator.settle(result);
+        }
+        store(argument, result);
+        return result;
+    }
 
+    /*
+     * A tail call from the body into a memoized function is followed here
+     * instead of being applied recursively, so a memoized loop still runs
+     * in constant stack. Every call on the way ends with the same value and
+     * is cached with it.
+     */
+    private static MallowObject follow(Evaluator evaluator, TailCall call) {
+        ArrayList<MemoFunction> callers = new ArrayList<>();
+        ArrayList<MallowObject> arguments = new ArrayList<>();
+        MemoFunction memo = (MemoFunction) call.function;
+        MallowObject argument = call.argument;
+        MallowObject result;
+        while (true) {
+            if (argument instanceof Thunk) {
+                argument = ((Thunk) argument).force();
+            }
+            result = memo.lookup(argument);
+            if (result != null) {
+                break;
+            }
+            callers.add(memo);
+            arguments.add(argument);
+            result = evaluator.applyOnce(memo.function, argument);
+            if (!memoized(result)) {
+                result = evaluator.settle(result);
+                break;
+            }
+            memo = (MemoFunction) ((TailCall) result).function;
+            argument = ((TailCall) result).argument;
+        }
+        for (int i = 0; i < callers.size(); i++) {
+            callers.get(i).store(arguments.get(i), result);
+        }
+        return result;
+    }
 
-        return null;
+    // a tail call of one argument into a memoized function, several go through settle
+    private static boolean memoized(MallowObject result) {
+        return result instanceof TailCall && ((TailCall) result).function instanceof MemoFunction
+                && ((TailCall) result).arguments == null;
     }
 
-    private MallowObject applyFunc(MallowFunction fn, MallowObject argument) {
-        Enviroment extendedEnv = extendFunctionEnv(fn, argument);
-        MallowObject result = eval(fn.body, extendedEnv);
+    synchronized MallowObject lookup(MallowObject argument) {
+        MallowObject result = cache.get(argument);
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
         return result;
     }
 
-    private Enviroment extendFunctionEnv(MallowFunction fn, MallowObject argument) {
-        Enviroment extend = fn.env.newEnclosedEnv(fn.env);
-        extend.set(fn.parameter.value, argument);
-        return extend;
+    synchronized void store(MallowObject argument, MallowObject result) {
+        cache.put(argument, result);
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    @Override
+    public String Type() {
+        return "function";
+    }
+
+    @Override
+    public String Inspect() {
+        return function.Inspect();
+    }
+}
+
+
+public class Evaluator {
+    static final MallowBoolean TRUE = new MallowBoolean(true);
+    static final MallowBoolean FALSE = new MallowBoolean(false);
+    static final MallowNil NIL = new MallowNil();
+    Resolver resolver;
+    Compiler compiler;
+    // call-by-need: arguments are passed as memoized thunks
+    boolean lazy = false;
+    int memoCapacity = 4096;
+    // --parallel: workers for ForkCode, null evaluates everything in order
+    ForkJoinPool pool;
+    int forkDepth;
+    // every memo made, for --memo-stats, null when nobody asks
+    ArrayList<MemoFunction> memos;
+    // --profile: times the functions compiled from now on, null when off
+    Profiler profiler;
+
+    public Evaluator() {
+        resolver = new Resolver(true);
+        compiler = new Compiler(this);
+    }
+
+    public MallowObject eval(Node node, Enviroment env) {
+        return compile(node).exec(env);
     }
 
-    private MallowObject evalIdentifier(Identifier node, Enviroment env) {
-        MallowObject val = env.get(node.value);
+    Code compile(Node node) {
+        resolver.resolve(node);
+        return compiler.compile(node);
+    }
 
-        if (val == null) {
-            System.err.printf("identifier not found %s\n", node.value);
-            System.exit(1);
+    MallowObject applyFunc(MallowObject fn, MallowObject argument) {
+        if (Metrics.ON) {
+            return metered(fn, argument, null);
+        } else if (fn instanceof MemoFunction) {
+            // settles by itself, one frame less for each level of memoized recursion
+            return ((MemoFunction) fn).apply(this, argument);
+        }
+        return settle(applyOnce(fn, argument));
+    }
+
+    // applyFunc under --metrics, counted and timed, see Metrics
+    private MallowObject metered(MallowObject fn, MallowObject argument, MallowObject[] arguments) {
+        Metrics.application();
+        Metrics.INSTANCE.enter();
+        SlowCallEvent event = new SlowCallEvent();
+        event.begin();
+        try {
+            return settle(arguments != null ? applyOnce(fn, arguments) : applyOnce(fn, argument));
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = Metrics.describe(fn);
+                event.commit();
+            }
+            Metrics.INSTANCE.exit();
         }
+    }
 
-        return val;
+    // runs one function body, which may end in a pending TailCall
+    MallowObject applyOnce(MallowObject fn, MallowObject argument) {
+        if (fn instanceof CompiledFunction) {
+            return ((CompiledFunction) fn).apply(argument);
+        } else if (fn instanceof VmClosure) {
+            return ((VmClosure) fn).vm.call((VmClosure) fn, argument);
+        } else if (fn instanceof MemoFunction) {
+            return ((MemoFunction) fn).apply(this, argument);
+        } else if (fn instanceof MallowBuiltin) {
+            return ((MallowBuiltin) fn).apply(this, argument);
+        }
+        return ((MallowFunction) fn).apply(argument);
     }
 
-    private MallowObject evalIfExpression(IfExpression node, Enviroment env) {
-        MallowObject cond = eval(node.conditional, env);
-        if (isTruthy(cond)) {
-            return eval(node.consequence, env);
-        } else if (node.alternative != null) {
-            return eval(node.alternative, env);
-        } else {
-            return NIL;
+    // how many arguments fn can take in one step
+    static int arity(MallowObject fn) {
+        if (fn instanceof MallowFunction) {
+            return ((MallowFunction) fn).remaining();
+        } else if (fn instanceof MallowBuiltin) {
+            return ((MallowBuiltin) fn).arity - ((MallowBuiltin) fn).arguments.length;
+        } else if (fn instanceof CompiledFunction) {
+            return ((CompiledFunction) fn).chain.size() - ((CompiledFunction) fn).args.length;
         }
+        return 1;
     }
 
-    private boolean isTruthy(MallowObject cond) {
+    MallowObject applyFunc(MallowObject fn, MallowObject[] arguments) {
+        if (Metrics.ON) {
+            return metered(fn, null, arguments);
+        }
+        return settle(applyOnce(fn, arguments));
+    }
+
+    // applies fn to arguments, in one step when there are no more than arity(fn)
+    MallowObject applyOnce(MallowObject fn, MallowObject[] arguments) {
+        if (arguments.length <= arity(fn)) {
+            if (fn instanceof MallowFunction) {
+                return ((MallowFunction) fn).apply(arguments);
+            } else if (fn instanceof MallowBuiltin) {
+                return ((MallowBuiltin) fn).apply(this, arguments);
+            } else if (fn instanceof CompiledFunction) {
+                return ((CompiledFunction) fn).apply(arguments);
+            }
+        }
+        MallowObject result = fn;
+        for (int i = 0; i < arguments.length - 1; i++) {
+            result = applyFunc(result, arguments[i]);
+        }
+        return applyOnce(result, arguments[arguments.length - 1]);
+    }
+
+    MallowObject settle(MallowObject result) {
+        while (result instanceof TailCall) {
+            TailCall call = (TailCall) result;
+            Metrics.application();
+            result = call.arguments != null ? applyOnce(call.function, call.arguments)
+                    : applyOnce(call.function, call.argument);
+        }
+        return result;
+    }
+
+    // about sixteen tasks per worker before forks stop
+    void parallelize(int threads) {
+        pool = new ForkJoinPool(threads);
+        forkDepth = 32 - Integer.numberOfLeadingZeros(threads - 1) + 4;
+    }
+
+    MemoFunction memoize(String name, MallowObject fn) {
+        MemoFunction memo = new MemoFunction(name, fn, memoCapacity);
+        if (memos != null) {
+            synchronized (memos) {
+                memos.add(memo);
+            }
+        }
+        return memo;
+    }
+
+    static boolean isTruthy(MallowObject cond) {
         if (cond == NIL) {
             return false;
         } else if (cond == TRUE) {
@@ -268,102 +752,29 @@ public class Evaluator {
         } else {
             return true;
         }
-}
+    }
 
-    private MallowObject evalInfix(MallowObject left, MallowObject right, String operator) {
+    static MallowObject evalEquality(MallowObject left, MallowObject right, boolean equal) {
         if (left instanceof MallowInteger && right instanceof MallowInteger) {
-            return evalIntegerExpression(((MallowInteger) left).value, ((MallowInteger) right).value, operator);
+            return nativeBooleanToMallowBoolean((((MallowInteger) left).value == ((MallowInteger) right).value) == equal);
         }
 
         if (left instanceof MallowBoolean && right instanceof MallowBoolean) {
-            switch (operator) {
-                case "=":
-                    return nativeBooleanToMallowBoolean(((MallowBoolean) left).value == ((MallowBoolean) right).value);
-                case "~=":
-                    return nativeBooleanToMallowBoolean(((MallowBoolean) left).value != ((MallowBoolean) right).value);
-            }
+            return nativeBooleanToMallowBoolean((((MallowBoolean) left).value == ((MallowBoolean) right).value) == equal);
         }
 
         if (left instanceof MallowNil && right instanceof MallowNil) {
-            switch (operator) {
-                case "=":
-                    return TRUE;
-                case "~=":
-                    return FALSE;
-            }
+            return nativeBooleanToMallowBoolean(equal);
         }
 
         return NIL;
-
-    }
-
-    private MallowObject evalIntegerExpression(int left, int right, String operator) {
-        switch (operator) {
-            case "+":
-                return new MallowInteger(left + right);
-            case "-":
-                return new MallowInteger(left - right);
-            case "*":
-                return new MallowInteger(left * right);
-            case "/":
-                return new MallowInteger(left / right);
-            case "mod":
-                return new MallowInteger(left % right);
-            case "<":
-                return nativeBooleanToMallowBoolean(left < right);
-            case ">":
-                return nativeBooleanToMallowBoolean(left > right);
-            case "=":
-                return nativeBooleanToMallowBoolean(left == right);
-            case "~=":
-                return nativeBooleanToMallowBoolean(left != right);
-            default:
-                return NIL;
-        }
-    }
-
-    private MallowObject evalPrefix(String operator, MallowObject right) {
-        switch (operator) {
-            case "not":
-                return evalNotOperator(right);
-            case "-":
-                return evalNegateOperator(right);
-            default:
-                return NIL;
-        }
     }
 
-    private MallowObject evalNegateOperator(MallowObject right) {
-        if (!(right instanceof MallowInteger)) {
-            return NIL;
-        }
-        return new MallowInteger(-((MallowInteger) right).value);
-    }
-
-    private MallowObject evalNotOperator(MallowObject right) {
-        if (right.equals(TRUE)) {
-            return FALSE;
-        } else if (right.equals(FALSE)) {
-            return TRUE;
-        } else if (right.equals(NIL)) {
-            return TRUE;
-        }
-        return FALSE;
-    }
-
-    private MallowObject nativeBooleanToMallowBoolean(boolean value) {
+    static MallowObject nativeBooleanToMallowBoolean(boolean value) {
         if (value) {
             return TRUE;
         }
         return FALSE;
     }
 
-    private MallowObject evalStatement(ArrayList<Statement> statements, Enviroment env) {
-        MallowObject obj = NIL;
-        for (Statement s : statements) {
-            obj = eval(s, env);
-        }
-        return obj;
-    }
-
 }
@@ -0,0 +1,205 @@
+package com.github.mallowc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/*
+ * Integers of a packed list. Elements are written from the end towards the
+ * front: a list is the suffix starting at some offset and running to the
+ * end, where the implicit nil is. Slots below front are free, the list
+ * starting exactly at front may claim the one below it to grow by one.
+ */
+abstract class IntStore {
+    private int front;
+
+    IntStore(int f) {
+        front = f;
+    }
+
+    abstract int get(int index);
+
+    abstract void set(int index, int value);
+
+    abstract int capacity();
+
+    /*
+     * Whether the list starting at index may put a new element in front of
+     * itself. Only the first list to ask gets it, at index 0 that means
+     * copying into a larger store.
+     */
+    synchronized boolean claim(int index) {
+        if (index != front) {
+            return false;
+        }
+        front--;
+        return true;
+    }
+
+    // a direct buffer counts its bytes in an int, heap stores keep to the same limit
+    static final int MAX_CAPACITY = Integer.MAX_VALUE / Integer.BYTES;
+
+    static IntStore allocate(int capacity, int front) {
+        if (capacity < 0 || capacity > MAX_CAPACITY) {
+            throw new MallowError("a list of " + capacity + " integers is too long");
+        }
+        if (IntList.offHeap && capacity >= IntList.OFF_HEAP_THRESHOLD) {
+            return new DirectIntStore(capacity, front);
+        }
+        return new HeapIntStore(capacity, front);
+    }
+}
+
+class HeapIntStore extends IntStore {
+    final int[] values;
+
+    public HeapIntStore(int capacity, int front) {
+        super(front);
+        values = new int[capacity];
+    }
+
+    @Override
+    int get(int index) {
+        return values[index];
+    }
+
+    @Override
+    void set(int index, int value) {
+        values[index] = value;
+    }
+
+    @Override
+    int capacity() {
+        return values.length;
+    }
+}
+
+// --off-heap-lists: large lists live outside the Java heap
+class DirectIntStore extends IntStore {
+    final IntBuffer values;
+
+    public DirectIntStore(int capacity, int front) {
+        super(front);
+        values = ByteBuffer.allocateDirect(Math.multiplyExact(capacity, Integer.BYTES)).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    @Override
+    int get(int index) {
+        return values.get(index);
+    }
+
+    @Override
+    void set(int index, int value) {
+        values.put(index, value);
+    }
+
+    @Override
+    int capacity() {
+        return values.capacity();
+    }
+}
+
+/*
+ * A list of integers kept in an IntStore instead of one MallowPair and one
+ * MallowInteger per element. pair of an integer and nil or such a list
+ * builds one, so range and friends produce them without any change to the
+ * Mallow code. cdr is a view one slot further on. A list that has already
+ * been extended at the front is extended again with a plain MallowPair.
+ */
+class IntList implements MallowList {
+    static final int OFF_HEAP_THRESHOLD = 1 << 16;
+    static boolean offHeap = false;
+
+    final IntStore store;
+    final int offset;
+
+    public IntList(IntStore s, int o) {
+        Profiler.allocated();
+        store = s;
+        offset = o;
+    }
+
+    static MallowObject cons(MallowObject head, MallowObject tail) {
+        if (!(head instanceof MallowInteger)) {
+            return new MallowPair(head, tail);
+        }
+        int value = ((MallowInteger) head).value;
+        if (tail instanceof MallowNil) {
+            IntStore store = IntStore.allocate(8, 7);
+            store.set(7, value);
+            return new IntList(store, 7);
+        } else if (!(tail instanceof IntList) || !((IntList) tail).store.claim(((IntList) tail).offset)) {
+            return new MallowPair(head, tail);
+        }
+
+        IntStore store = ((IntList) tail).store;
+        int offset = ((IntList) tail).offset;
+        if (offset == 0) {
+            int length = store.capacity();
+            if (length > IntStore.MAX_CAPACITY / 2) {
+                // cannot double, the list goes on with pairs in front of the packed part
+                return new MallowPair(head, tail);
+            }
+            // full, copy into the back half of a store twice the size
+            IntStore larger = IntStore.allocate(length * 2, length - 1);
+            for (int i = 0; i < length; i++) {
+                larger.set(length + i, store.get(i));
+            }
+            store = larger;
+            offset = length;
+        }
+        store.set(offset - 1, value);
+        return new IntList(store, offset - 1);
+    }
+
+    @Override
+    public MallowObject car() {
+        return MallowInteger.of(store.get(offset));
+    }
+
+    @Override
+    public MallowObject cdr() {
+        return offset + 1 == store.capacity() ? Evaluator.NIL : new IntList(store, offset + 1);
+    }
+
+    @Override
+    public String Type() {
+        return "";
+    }
+
+    @Override
+    public String Inspect() {
+        StringBuilder out = new StringBuilder();
+        for (int i = offset; i < store.capacity(); i++) {
+            if (i > offset) {
+                out.append(' ');
+            }
+            out.append(store.get(i));
+        }
+        return out.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MallowList && MallowPair.equals(this, (MallowList) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return MallowPair.hash(this);
+    }
+
+    // same elements, without boxing them
+    boolean sameElements(IntList other) {
+        int length = store.capacity() - offset;
+        if (other.store.capacity() - other.offset != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (store.get(offset + i) != other.store.get(other.offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,1012 @@
+package com.github.mallowc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Just enough of a class file writer for the JIT backend. Classes are
+ * emitted at version 50 so no StackMapTable has to be computed, the JVM
+ * falls back to the type inferencing verifier for them.
+ */
+class ClassFileWriter {
+    String name;
+    ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    DataOutputStream poolOut = new DataOutputStream(pool);
+    Map<String, Integer> entries = new HashMap<>();
+    int poolCount = 1;
+    ArrayList<String[]> fields = new ArrayList<>();
+    ArrayList<MethodWriter> methods = new ArrayList<>();
+
+    public ClassFileWriter(String internalName) {
+        name = internalName;
+    }
+
+    int utf8(String s) {
+        Integer index = entries.get("U" + s);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entries.put("U" + s, poolCount);
+        return poolCount++;
+    }
+
+    int integer(int v) {
+        Integer index = entries.get("I" + v);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(3);
+            poolOut.writeInt(v);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entries.put("I" + v, poolCount);
+        return poolCount++;
+    }
+
+    int classRef(String internalName) {
+        return reference("C", 7, utf8(internalName), -1, internalName);
+    }
+
+    int string(String s) {
+        return reference("S", 8, utf8(s), -1, s);
+    }
+
+    int nameAndType(String n, String descriptor) {
+        return reference("N", 12, utf8(n), utf8(descriptor), n + " " + descriptor);
+    }
+
+    int fieldRef(String owner, String n, String descriptor) {
+        return reference("F", 9, classRef(owner), nameAndType(n, descriptor), owner + "." + n + descriptor);
+    }
+
+    int methodRef(String owner, String n, String descriptor) {
+        return reference("M", 10, classRef(owner), nameAndType(n, descriptor), owner + "." + n + descriptor);
+    }
+
+    private int reference(String kind, int tag, int first, int second, String key) {
+        Integer index = entries.get(kind + key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(first);
+            if (second >= 0) {
+                poolOut.writeShort(second);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entries.put(kind + key, poolCount);
+        return poolCount++;
+    }
+
+    void field(String n, String descriptor) {
+        fields.add(new String[] { n, descriptor });
+    }
+
+    MethodWriter method(String n, String descriptor) {
+        MethodWriter m = new MethodWriter(this, n, descriptor);
+        methods.add(m);
+        return m;
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+        int codeName = utf8("Code");
+        for (String[] f : fields) {
+            utf8(f[0]);
+            utf8(f[1]);
+        }
+        for (MethodWriter m : methods) {
+            utf8(m.name);
+            utf8(m.descriptor);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(50);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+
+            out.writeShort(fields.size());
+            for (String[] f : fields) {
+                out.writeShort(0x0008); // ACC_STATIC
+                out.writeShort(utf8(f[0]));
+                out.writeShort(utf8(f[1]));
+                out.writeShort(0);
+            }
+
+            out.writeShort(methods.size());
+            for (MethodWriter m : methods) {
+                if (m.length > 65535) {
+                    throw new IllegalStateException("method too large: " + m.name);
+                }
+                out.writeShort(0x0008); // ACC_STATIC
+                out.writeShort(utf8(m.name));
+                out.writeShort(utf8(m.descriptor));
+                out.writeShort(1);
+                out.writeShort(codeName);
+                out.writeInt(12 + m.length + 8 * m.handlers.size());
+                out.writeShort(m.maxStack);
+                out.writeShort(m.maxLocals);
+                out.writeInt(m.length);
+                out.write(m.code, 0, m.length);
+                out.writeShort(m.handlers.size());
+                for (int[] h : m.handlers) {
+                    out.writeShort(h[0]);
+                    out.writeShort(h[1]);
+                    out.writeShort(h[2]);
+                    out.writeShort(h[3]);
+                }
+                out.writeShort(0);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
+
+class MethodWriter {
+    static final int ACONST_NULL = 0x01, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+    static final int ILOAD = 0x15, ALOAD = 0x19, ISTORE = 0x36, ASTORE = 0x3a, AALOAD = 0x32;
+    static final int POP = 0x57, POP2 = 0x58, DUP = 0x59, SWAP = 0x5f;
+    static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IREM = 0x70, INEG = 0x74, IOR = 0x80;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IF_ICMPLT = 0xa1, IF_ICMPGT = 0xa3, GOTO = 0xa7;
+    static final int IRETURN = 0xac, ARETURN = 0xb0, RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2, PUTSTATIC = 0xb3, INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8;
+
+    ClassFileWriter cls;
+    String name;
+    String descriptor;
+    byte[] code = new byte[256];
+    int length = 0;
+    int stack = 0;
+    int maxStack = 0;
+    int maxLocals;
+    ArrayList<int[]> handlers = new ArrayList<>();
+
+    public MethodWriter(ClassFileWriter c, String n, String d) {
+        cls = c;
+        name = n;
+        descriptor = d;
+        maxLocals = slots(d, false);
+    }
+
+    // number of argument slots in a descriptor, or the stack effect of a call
+    static int slots(String descriptor, boolean effect) {
+        int count = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+            if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            i++;
+            count++;
+        }
+        if (!effect) {
+            return count;
+        }
+        return (descriptor.charAt(i + 1) == 'V' ? 0 : 1) - count;
+    }
+
+    private void u1(int b) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[length++] = (byte) b;
+    }
+
+    private void u2(int v) {
+        u1(v >> 8);
+        u1(v);
+    }
+
+    void adjust(int delta) {
+        stack += delta;
+        if (stack > maxStack) {
+            maxStack = stack;
+        }
+    }
+
+    void op(int opcode, int delta) {
+        u1(opcode);
+        adjust(delta);
+    }
+
+    void pushInt(int v) {
+        if (v >= -1 && v <= 5) {
+            op(0x03 + v, 1);
+        } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            u1(v);
+        } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+            op(SIPUSH, 1);
+            u2(v);
+        } else {
+            op(LDC_W, 1);
+            u2(cls.integer(v));
+        }
+    }
+
+    void pushString(String s) {
+        op(LDC_W, 1);
+        u2(cls.string(s));
+    }
+
+    void aload(int index) {
+        op(ALOAD, 1);
+        u1(index);
+    }
+
+    void astore(int index) {
+        op(ASTORE, -1);
+        u1(index);
+        maxLocals = Math.max(maxLocals, index + 1);
+    }
+
+    void iload(int index) {
+        op(ILOAD, 1);
+        u1(index);
+    }
+
+    void istore(int index) {
+        op(ISTORE, -1);
+        u1(index);
+        maxLocals = Math.max(maxLocals, index + 1);
+    }
+
+    void field(int opcode, String owner, String n, String d) {
+        op(opcode, opcode == GETSTATIC ? 1 : -1);
+        u2(cls.fieldRef(owner, n, d));
+    }
+
+    void invoke(int opcode, String owner, String n, String d) {
+        op(opcode, slots(d, true) - (opcode == INVOKESTATIC ? 0 : 1));
+        u2(cls.methodRef(owner, n, d));
+    }
+
+    int position() {
+        return length;
+    }
+
+    // emits a branch with a placeholder offset, returns its position for patch
+    int jump(int opcode, int delta) {
+        int at = length;
+        op(opcode, delta);
+        u2(0);
+        return at;
+    }
+
+    void jumpTo(int opcode, int delta, int target) {
+        int at = length;
+        op(opcode, delta);
+        u2(target - at);
+    }
+
+    void patch(int at) {
+        int offset = length - at;
+        code[at + 1] = (byte) (offset >> 8);
+        code[at + 2] = (byte) offset;
+    }
+
+    void handler(int start, int end, int target, String type) {
+        handlers.add(new int[] { start, end, target, cls.classRef(type) });
+    }
+}
+
+/*
+ * A defined function compiled to a static method of the generated class.
+ * Applied one argument at a time like any Mallow function, the method runs
+ * once all parameters of the lambda chain have been supplied.
+ */
+class CompiledFunction implements MallowObject {
+    String name;
+    ArrayList<FunctionLiteral> chain;
+    MethodHandle handle;
+    MallowObject[] args;
+
+    public CompiledFunction(String n, ArrayList<FunctionLiteral> c, MethodHandle h, MallowObject[] a) {
+        name = n;
+        chain = c;
+        handle = h;
+        args = a;
+    }
+
+    MallowObject apply(MallowObject argument) {
+        MallowObject[] next = Arrays.copyOf(args, args.length + 1);
+        next[args.length] = argument;
+        return invoke(next);
+    }
+
+    // no more arguments than are still missing
+    MallowObject apply(MallowObject[] arguments) {
+        MallowObject[] next = Arrays.copyOf(args, args.length + arguments.length);
+        System.arraycopy(arguments, 0, next, args.length, arguments.length);
+        return invoke(next);
+    }
+
+    private MallowObject invoke(MallowObject[] next) {
+        if (next.length < chain.size()) {
+            return new CompiledFunction(name, chain, handle, next);
+        }
+
+        try {
+            return (MallowObject) handle.invokeExact(next);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String Type() {
+        return "function";
+    }
+
+    @Override
+    public String Inspect() {
+        return "lambda x . " + chain.get(args.length).body.string();
+    }
+}
+
+/*
+ * Operations the generated code calls into rather than emitting inline.
+ */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    static MallowObject global(Enviroment env, String name) {
+        MallowObject val = env.get(name);
+
+        if (val == null) {
+            throw new MallowError("identifier not found " + name);
+        }
+
+        return val;
+    }
+
+    static MallowObject string(String s) {
+        return new MallowString(s);
+    }
+
+    static MallowObject not(MallowObject value) {
+        if (value == Evaluator.TRUE) {
+            return Evaluator.FALSE;
+        } else if (value == Evaluator.FALSE || value == Evaluator.NIL) {
+            return Evaluator.TRUE;
+        }
+        return Evaluator.FALSE;
+    }
+
+    static MallowObject equal(MallowObject left, MallowObject right) {
+        return Evaluator.evalEquality(left, right, true);
+    }
+
+    static MallowObject notEqual(MallowObject left, MallowObject right) {
+        return Evaluator.evalEquality(left, right, false);
+    }
+
+    // an arithmetic operand, 0 in place of one that is not an integer
+    static int toInt(MallowObject value) {
+        return value instanceof MallowInteger ? ((MallowInteger) value).value : 0;
+    }
+
+    // failed, or 1 when value is not an integer
+    static int failed(MallowObject value, int failed) {
+        return value instanceof MallowInteger ? failed : 1;
+    }
+
+    // a direct call reached before the define of its function ran
+    static void undefined(String name) {
+        throw new MallowError("identifier not found " + name);
+    }
+
+    static MallowObject apply(MallowObject fn, MallowObject argument, Evaluator evaluator) {
+        return evaluator.applyFunc(fn, argument);
+    }
+
+    // a compiled method may hand back a pending TailCall, run it to a value
+    static MallowObject settle(MallowObject result, Evaluator evaluator) {
+        return evaluator.settle(result);
+    }
+
+    static MallowObject tailCall(MallowObject fn, MallowObject argument) {
+        return new TailCall(fn, argument);
+    }
+
+    static MallowObject pair(MallowObject left, MallowObject right) {
+        return IntList.cons(left, right);
+    }
+
+    static MallowObject car(MallowObject list) {
+        return ((MallowList) list).car();
+    }
+
+    static MallowObject cdr(MallowObject list) {
+        return ((MallowList) list).cdr();
+    }
+
+    static void puts(MallowObject value, Enviroment env) {
+        env.globals.out.print(value);
+    }
+}
+
+/*
+ * Backend that turns top-level defined functions and the program body into
+ * JVM bytecode, loaded as a hidden class. A define whose value is a chain
+ * lambda a . lambda b . body, where body creates no further lambdas,
+ * becomes a static method taking a and b. A lambda applied on the spot,
+ * which is how the optimizer binds a common subexpression, is no closure
+ * but one more local. Saturated calls to functions
+ * that are defined exactly once are emitted as direct invokestatic, behind
+ * a check that the define has run, and a
+ * saturated self call in tail position becomes a jump back to the start.
+ * Other calls in tail position return a TailCall, which the caller settles
+ * through Evaluator.applyFunc so mutual recursion stays off the stack.
+ * Arithmetic and comparison subtrees run on primitive ints in a method of
+ * their own, which evaluates every operand like the tree engine does and
+ * comes out nil when one of them is not an integer.
+ *
+ * Statements and definitions outside that subset are compiled by the tree
+ * Compiler and called from the generated program body.
+ */
+public class JitCompiler {
+    static final String CLASS = "com/github/mallowc/MallowJit";
+    static final String OBJECT = "Lcom/github/mallowc/MallowObject;";
+    static final String ENV = "Lcom/github/mallowc/Enviroment;";
+    static final String EVALUATOR = "Lcom/github/mallowc/Evaluator;";
+    static final String RUNTIME = "com/github/mallowc/JitRuntime";
+
+    Evaluator evaluator;
+    ClassFileWriter cw;
+    Map<String, JitFunction> known;
+    ArrayList<JitFunction> functions;
+    int regions;
+
+    static class JitFunction {
+        String name;
+        String method;
+        // static boolean set once the define has run, for the direct calls
+        String defined;
+        ArrayList<FunctionLiteral> chain;
+        Expression body;
+        ArrayList<String> params = new ArrayList<>();
+    }
+
+    public JitCompiler(Evaluator e) {
+        evaluator = e;
+    }
+
+    public void run(Ast program, Enviroment env) {
+        evaluator.resolver.resolve(program);
+        cw = new ClassFileWriter(CLASS);
+        cw.field("env", ENV);
+        cw.field("evaluator", EVALUATOR);
+        known = new HashMap<>();
+        functions = new ArrayList<>();
+        regions = 0;
+
+        Map<String, Integer> definitions = new HashMap<>();
+        Map<DefineStmt, JitFunction> compiled = new HashMap<>();
+        for (Statement s : program.statements) {
+            if (s instanceof DefineStmt) {
+                DefineStmt stmt = (DefineStmt) s;
+                definitions.merge(stmt.name.value, 1, Integer::sum);
+                JitFunction fn = candidate(stmt);
+                if (fn != null) {
+                    compiled.put(stmt, fn);
+                    functions.add(fn);
+                }
+            }
+        }
+        for (JitFunction fn : functions) {
+            if (definitions.get(fn.name) == 1) {
+                known.put(fn.name, fn);
+                fn.defined = "defined$" + fn.method;
+                cw.field(fn.defined, "Z");
+            }
+        }
+
+        for (JitFunction fn : functions) {
+            compileFunction(fn);
+        }
+
+        Code[] fallback = new Code[program.statements.size()];
+        MethodWriter main = cw.method("run",
+                "(" + ENV + "[" + OBJECT + "[Lcom/github/mallowc/Code;" + EVALUATOR + ")V");
+        main.aload(0);
+        main.field(MethodWriter.PUTSTATIC, CLASS, "env", ENV);
+        main.aload(3);
+        main.field(MethodWriter.PUTSTATIC, CLASS, "evaluator", EVALUATOR);
+        ArrayList<String> none = new ArrayList<>();
+        for (int i = 0; i < program.statements.size(); i++) {
+            Statement s = program.statements.get(i);
+            if (s instanceof DefineStmt && compiled.containsKey(s)) {
+                main.aload(0);
+                main.pushString(((DefineStmt) s).name.value);
+                main.aload(1);
+                main.pushInt(functions.indexOf(compiled.get(s)));
+                main.op(MethodWriter.AALOAD, -1);
+                main.invoke(MethodWriter.INVOKEVIRTUAL, "com/github/mallowc/Enviroment", "set",
+                        "(Ljava/lang/String;" + OBJECT + ")" + OBJECT);
+                main.op(MethodWriter.POP, -1);
+                if (compiled.get(s).defined != null) {
+                    main.pushInt(1);
+                    main.field(MethodWriter.PUTSTATIC, CLASS, compiled.get(s).defined, "Z");
+                }
+            } else if (s instanceof DefineStmt && compilable(((DefineStmt) s).value, none)) {
+                main.aload(0);
+                main.pushString(((DefineStmt) s).name.value);
+                emit(main, ((DefineStmt) s).value, none, null, false);
+                main.invoke(MethodWriter.INVOKEVIRTUAL, "com/github/mallowc/Enviroment", "set",
+                        "(Ljava/lang/String;" + OBJECT + ")" + OBJECT);
+                main.op(MethodWriter.POP, -1);
+            } else if (s instanceof PutsStmt && compilable(((PutsStmt) s).value, none)) {
+                emit(main, ((PutsStmt) s).value, none, null, false);
+                main.aload(0);
+                main.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "puts", "(" + OBJECT + ENV + ")V");
+            } else if (s instanceof ExpressionStatement && compilable(((ExpressionStatement) s).expr, none)) {
+                emit(main, ((ExpressionStatement) s).expr, none, null, false);
+                main.op(MethodWriter.POP, -1);
+            } else {
+                fallback[i] = evaluator.compiler.compile(s);
+                main.aload(2);
+                main.pushInt(i);
+                main.op(MethodWriter.AALOAD, -1);
+                main.aload(0);
+                main.invoke(MethodWriter.INVOKEVIRTUAL, "com/github/mallowc/Code", "exec",
+                        "(" + ENV + ")" + OBJECT);
+                main.op(MethodWriter.POP, -1);
+            }
+        }
+        main.op(MethodWriter.RETURN, 0);
+
+        byte[] bytes;
+        try {
+            bytes = cw.toByteArray();
+        } catch (IllegalStateException e) {
+            // too large for a single method, run it on the tree engine instead
+            evaluator.eval(program, env);
+            return;
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            Class<?> hidden = lookup.lookupClass();
+            MallowObject[] values = new MallowObject[functions.size()];
+            for (int i = 0; i < values.length; i++) {
+                JitFunction fn = functions.get(i);
+                MethodHandle handle = lookup.findStatic(hidden, fn.method, descriptorType(fn.params.size()))
+                        .asSpreader(MallowObject[].class, fn.params.size());
+                values[i] = new CompiledFunction(fn.name, fn.chain, handle, new MallowObject[0]);
+            }
+            MethodHandle run = lookup.findStatic(hidden, "run", MethodType.methodType(void.class,
+                    Enviroment.class, MallowObject[].class, Code[].class, Evaluator.class));
+            run.invoke(env, values, fallback, evaluator);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodType descriptorType(int arity) {
+        Class<?>[] params = new Class<?>[arity];
+        Arrays.fill(params, MallowObject.class);
+        return MethodType.methodType(MallowObject.class, params);
+    }
+
+    private static String descriptor(int arity, String result) {
+        return "(" + OBJECT.repeat(arity) + ")" + result;
+    }
+
+    private JitFunction candidate(DefineStmt stmt) {
+        if (!(stmt.value instanceof FunctionLiteral)) {
+            return null;
+        }
+        JitFunction fn = new JitFunction();
+        fn.name = stmt.name.value;
+        fn.chain = new ArrayList<>();
+        Expression body = stmt.value;
+        while (body instanceof FunctionLiteral) {
+            fn.chain.add((FunctionLiteral) body);
+            fn.params.add(((FunctionLiteral) body).parameter.value);
+            body = ((FunctionLiteral) body).body;
+        }
+        if (fn.params.size() > 200 || !compilable(body, fn.params)) {
+            return null;
+        }
+        fn.body = body;
+        fn.method = "fn$" + functions.size();
+        return fn;
+    }
+
+    // the subset of expressions that can be emitted without building closures
+    private boolean compilable(Expression expr, ArrayList<String> params) {
+        if (expr == null || expr instanceof IntegerLiteral || expr instanceof StringLiteral
+                || expr instanceof BooleanLiteral || expr instanceof NilLiteral || expr instanceof Identifier) {
+            return true;
+        } else if (expr instanceof PrefixExpression) {
+            return compilable(((PrefixExpression) expr).right, params);
+        } else if (expr instanceof InfixExpression) {
+            return compilable(((InfixExpression) expr).left, params)
+                    && compilable(((InfixExpression) expr).right, params);
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            return compilable(e.conditional, params) && compilable(e.consequence, params)
+                    && compilable(e.alternative, params);
+        } else if (let(expr) != null) {
+            // the program body keeps its locals for the arguments of run
+            FunctionLiteral let = let(expr);
+            ArrayList<String> inner = new ArrayList<>(params);
+            inner.add(let.parameter.value);
+            return !params.isEmpty() && inner.size() < 250 && compilable(((FunctionCall) expr).argument, params)
+                    && compilable(let.body, inner);
+        } else if (expr instanceof FunctionCall) {
+            return compilable(((FunctionCall) expr).function, params)
+                    && compilable(((FunctionCall) expr).argument, params);
+        } else if (expr instanceof PairExpr) {
+            return compilable(((PairExpr) expr).left, params) && compilable(((PairExpr) expr).right, params);
+        } else if (expr instanceof CarExpr) {
+            return compilable(((CarExpr) expr).list, params);
+        } else if (expr instanceof CdrExpr) {
+            return compilable(((CdrExpr) expr).list, params);
+        }
+        return false;
+    }
+
+    private void compileFunction(JitFunction fn) {
+        MethodWriter m = cw.method(fn.method, descriptor(fn.params.size(), OBJECT));
+        emit(m, fn.body, fn.params, fn, true);
+        m.op(MethodWriter.ARETURN, -1);
+    }
+
+    private void emit(MethodWriter m, Expression expr, ArrayList<String> params, JitFunction self, boolean tail) {
+        if (expr == null) {
+            m.op(MethodWriter.ACONST_NULL, 1);
+        } else if (expr instanceof IntegerLiteral) {
+            m.pushInt(((IntegerLiteral) expr).value);
+            m.invoke(MethodWriter.INVOKESTATIC, "com/github/mallowc/MallowInteger", "of",
+                    "(I)Lcom/github/mallowc/MallowInteger;");
+        } else if (expr instanceof StringLiteral) {
+            m.pushString(((StringLiteral) expr).value.replace('\n', ' '));
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "string", "(Ljava/lang/String;)" + OBJECT);
+        } else if (expr instanceof BooleanLiteral) {
+            m.field(MethodWriter.GETSTATIC, "com/github/mallowc/Evaluator",
+                    ((BooleanLiteral) expr).value ? "TRUE" : "FALSE", "Lcom/github/mallowc/MallowBoolean;");
+        } else if (expr instanceof NilLiteral) {
+            emitNil(m);
+        } else if (expr instanceof Identifier) {
+            String name = ((Identifier) expr).value;
+            int index = params.lastIndexOf(name);
+            if (index >= 0) {
+                m.aload(index);
+            } else {
+                m.field(MethodWriter.GETSTATIC, CLASS, "env", ENV);
+                m.pushString(name);
+                m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "global", "(" + ENV + "Ljava/lang/String;)" + OBJECT);
+            }
+        } else if (expr instanceof PrefixExpression && ((PrefixExpression) expr).operator.equals("not")) {
+            emit(m, ((PrefixExpression) expr).right, params, self, false);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "not", "(" + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof InfixExpression && ((InfixExpression) expr).operator.equals("=")) {
+            emit(m, ((InfixExpression) expr).left, params, self, false);
+            emit(m, ((InfixExpression) expr).right, params, self, false);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "equal", "(" + OBJECT + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof InfixExpression && ((InfixExpression) expr).operator.equals("~=")) {
+            emit(m, ((InfixExpression) expr).left, params, self, false);
+            emit(m, ((InfixExpression) expr).right, params, self, false);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "notEqual", "(" + OBJECT + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof InfixExpression || expr instanceof PrefixExpression) {
+            String region = region(expr, params, false);
+            loadParams(m, params);
+            m.invoke(MethodWriter.INVOKESTATIC, CLASS, region, descriptor(params.size(), OBJECT));
+        } else if (expr instanceof IfExpression) {
+            emitIf(m, (IfExpression) expr, params, self, tail);
+        } else if (let(expr) != null) {
+            // (lambda x . body) | arg, as the optimizer leaves it: arg goes to the next local
+            FunctionLiteral let = let(expr);
+            ArrayList<String> inner = new ArrayList<>(params);
+            inner.add(let.parameter.value);
+            emit(m, ((FunctionCall) expr).argument, params, self, false);
+            m.astore(params.size());
+            emit(m, let.body, inner, self, tail);
+        } else if (expr instanceof FunctionCall) {
+            emitCall(m, (FunctionCall) expr, params, self, tail);
+        } else if (expr instanceof PairExpr) {
+            emit(m, ((PairExpr) expr).left, params, self, false);
+            emit(m, ((PairExpr) expr).right, params, self, false);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "pair", "(" + OBJECT + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof CarExpr) {
+            emit(m, ((CarExpr) expr).list, params, self, false);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "car", "(" + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof CdrExpr) {
+            emit(m, ((CdrExpr) expr).list, params, self, false);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "cdr", "(" + OBJECT + ")" + OBJECT);
+        } else {
+            throw new IllegalArgumentException("cannot compile " + expr.getClass().getSimpleName());
+        }
+    }
+
+    private static FunctionLiteral let(Expression expr) {
+        if (expr instanceof FunctionCall && ((FunctionCall) expr).function instanceof FunctionLiteral) {
+            return (FunctionLiteral) ((FunctionCall) expr).function;
+        }
+        return null;
+    }
+
+    private void emitNil(MethodWriter m) {
+        m.field(MethodWriter.GETSTATIC, "com/github/mallowc/Evaluator", "NIL", "Lcom/github/mallowc/MallowNil;");
+    }
+
+    private void loadParams(MethodWriter m, ArrayList<String> params) {
+        for (int i = 0; i < params.size(); i++) {
+            m.aload(i);
+        }
+    }
+
+    private boolean isComparison(Expression expr) {
+        return expr instanceof InfixExpression
+                && (((InfixExpression) expr).operator.equals("<") || ((InfixExpression) expr).operator.equals(">"));
+    }
+
+    private void emitIf(MethodWriter m, IfExpression expr, ArrayList<String> params, JitFunction self, boolean tail) {
+        if (isComparison(expr.conditional)) {
+            String region = region(expr.conditional, params, true);
+            loadParams(m, params);
+            m.invoke(MethodWriter.INVOKESTATIC, CLASS, region, descriptor(params.size(), "Z"));
+        } else {
+            emit(m, expr.conditional, params, self, false);
+            m.invoke(MethodWriter.INVOKESTATIC, "com/github/mallowc/Evaluator", "isTruthy", "(" + OBJECT + ")Z");
+        }
+        int before = m.stack - 1;
+        int otherwise = m.jump(MethodWriter.IFEQ, -1);
+        emit(m, expr.consequence, params, self, tail);
+        int end = m.jump(MethodWriter.GOTO, 0);
+        m.stack = before;
+        m.patch(otherwise);
+        if (expr.alternative != null) {
+            emit(m, expr.alternative, params, self, tail);
+        } else {
+            emitNil(m);
+        }
+        m.patch(end);
+    }
+
+    private void emitCall(MethodWriter m, FunctionCall call, ArrayList<String> params, JitFunction self, boolean tail) {
+        ArrayList<Expression> args = new ArrayList<>();
+        Expression head = call;
+        while (head instanceof FunctionCall) {
+            args.add(0, ((FunctionCall) head).argument);
+            head = ((FunctionCall) head).function;
+        }
+
+        JitFunction target = null;
+        if (head instanceof Identifier && params.lastIndexOf(((Identifier) head).value) < 0) {
+            target = known.get(((Identifier) head).value);
+        }
+
+        int applied = 0;
+        if (target != null && tail && target == self && target.params.size() == args.size()) {
+            for (int i = 0; i < args.size(); i++) {
+                emit(m, args.get(i), params, self, false);
+            }
+            for (int i = args.size() - 1; i >= 0; i--) {
+                m.astore(i);
+            }
+            m.jumpTo(MethodWriter.GOTO, 0, 0);
+            // the jump leaves nothing behind, account for the value the caller expects
+            m.adjust(1);
+            return;
+        } else if (target != null && !tail && target.params.size() <= args.size()) {
+            // before the define runs the tree engine fails to find the name, and so does this
+            m.field(MethodWriter.GETSTATIC, CLASS, target.defined, "Z");
+            int defined = m.jump(MethodWriter.IFNE, -1);
+            m.pushString(target.name);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "undefined", "(Ljava/lang/String;)V");
+            m.patch(defined);
+            int arity = target.params.size();
+            for (int i = 0; i < arity; i++) {
+                emit(m, args.get(i), params, self, false);
+            }
+            m.invoke(MethodWriter.INVOKESTATIC, CLASS, target.method, descriptor(arity, OBJECT));
+            m.field(MethodWriter.GETSTATIC, CLASS, "evaluator", EVALUATOR);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "settle", "(" + OBJECT + EVALUATOR + ")" + OBJECT);
+            applied = arity;
+        } else {
+            emit(m, head, params, self, false);
+        }
+
+        for (int i = applied; i < args.size(); i++) {
+            emit(m, args.get(i), params, self, false);
+            if (tail && i == args.size() - 1) {
+                m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "tailCall", "(" + OBJECT + OBJECT + ")" + OBJECT);
+            } else {
+                m.field(MethodWriter.GETSTATIC, CLASS, "evaluator", EVALUATOR);
+                m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "apply",
+                        "(" + OBJECT + OBJECT + EVALUATOR + ")" + OBJECT);
+            }
+        }
+    }
+
+    /*
+     * Emits an arithmetic or comparison tree as its own method over the
+     * enclosing parameters, computing on ints. Like the tree engine it
+     * evaluates every operand even after one turned out not to be an
+     * integer, which sets the failed local and stands in as 0. The result
+     * is nil, or false for a condition, when failed is set at the end.
+     */
+    private String region(Expression expr, ArrayList<String> params, boolean condition) {
+        String name = "region$" + regions++;
+        MethodWriter m = cw.method(name, descriptor(params.size(), condition ? "Z" : OBJECT));
+        // after the locals of any let inside expr
+        int failed = params.size() + lets(expr);
+        m.pushInt(0);
+        m.istore(failed);
+        if (isComparison(expr)) {
+            InfixExpression infix = (InfixExpression) expr;
+            emitInt(m, infix.left, params, failed);
+            emitInt(m, infix.right, params, failed);
+            m.iload(failed);
+            int compare = m.jump(MethodWriter.IFEQ, -1);
+            m.op(MethodWriter.POP2, -2);
+            emitFailed(m, condition);
+            m.stack = 2;
+            m.patch(compare);
+            int yes = m.jump(infix.operator.equals("<") ? MethodWriter.IF_ICMPLT : MethodWriter.IF_ICMPGT, -2);
+            if (condition) {
+                m.pushInt(0);
+                m.op(MethodWriter.IRETURN, -1);
+                m.patch(yes);
+                m.pushInt(1);
+                m.op(MethodWriter.IRETURN, -1);
+            } else {
+                m.field(MethodWriter.GETSTATIC, "com/github/mallowc/Evaluator", "FALSE",
+                        "Lcom/github/mallowc/MallowBoolean;");
+                m.op(MethodWriter.ARETURN, -1);
+                m.patch(yes);
+                m.field(MethodWriter.GETSTATIC, "com/github/mallowc/Evaluator", "TRUE",
+                        "Lcom/github/mallowc/MallowBoolean;");
+                m.op(MethodWriter.ARETURN, -1);
+            }
+        } else {
+            emitInt(m, expr, params, failed);
+            m.iload(failed);
+            int box = m.jump(MethodWriter.IFEQ, -1);
+            m.op(MethodWriter.POP, -1);
+            emitFailed(m, false);
+            m.stack = 1;
+            m.patch(box);
+            m.invoke(MethodWriter.INVOKESTATIC, "com/github/mallowc/MallowInteger", "of",
+                    "(I)Lcom/github/mallowc/MallowInteger;");
+            m.op(MethodWriter.ARETURN, -1);
+        }
+        return name;
+    }
+
+    private void emitFailed(MethodWriter m, boolean condition) {
+        if (condition) {
+            m.pushInt(0);
+            m.op(MethodWriter.IRETURN, -1);
+        } else {
+            emitNil(m);
+            m.op(MethodWriter.ARETURN, -1);
+        }
+    }
+
+    private void emitInt(MethodWriter m, Expression expr, ArrayList<String> params, int failed) {
+        if (expr instanceof IntegerLiteral) {
+            m.pushInt(((IntegerLiteral) expr).value);
+        } else if (expr instanceof PrefixExpression && ((PrefixExpression) expr).operator.equals("-")) {
+            emitInt(m, ((PrefixExpression) expr).right, params, failed);
+            m.op(MethodWriter.INEG, 0);
+        } else if (expr instanceof InfixExpression && (arithmetic(((InfixExpression) expr).operator) == MethodWriter.IDIV
+                || arithmetic(((InfixExpression) expr).operator) == MethodWriter.IREM)) {
+            // divides only when neither operand failed, one that failed before them does not
+            // count, so failed starts over and what it was waits on the stack below them
+            m.iload(failed);
+            m.pushInt(0);
+            m.istore(failed);
+            emitInt(m, ((InfixExpression) expr).left, params, failed);
+            emitInt(m, ((InfixExpression) expr).right, params, failed);
+            m.iload(failed);
+            int divide = m.jump(MethodWriter.IFEQ, -1);
+            int operands = m.stack;
+            m.op(MethodWriter.POP2, -2);
+            m.pushInt(0);
+            int done = m.jump(MethodWriter.GOTO, 0);
+            m.stack = operands;
+            m.patch(divide);
+            m.op(arithmetic(((InfixExpression) expr).operator), -1);
+            m.patch(done);
+            m.op(MethodWriter.SWAP, 0);
+            m.iload(failed);
+            m.op(MethodWriter.IOR, -1);
+            m.istore(failed);
+        } else if (expr instanceof InfixExpression && arithmetic(((InfixExpression) expr).operator) != 0) {
+            emitInt(m, ((InfixExpression) expr).left, params, failed);
+            emitInt(m, ((InfixExpression) expr).right, params, failed);
+            m.op(arithmetic(((InfixExpression) expr).operator), -1);
+        } else {
+            emit(m, expr, params, null, false);
+            m.op(MethodWriter.DUP, 1);
+            m.iload(failed);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "failed", "(" + OBJECT + "I)I");
+            m.istore(failed);
+            m.invoke(MethodWriter.INVOKESTATIC, RUNTIME, "toInt", "(" + OBJECT + ")I");
+        }
+    }
+
+    // how deep lets nest in expr, each one's value goes in the local after its enclosing one's
+    private static int lets(Expression expr) {
+        if (expr instanceof PrefixExpression) {
+            return lets(((PrefixExpression) expr).right);
+        } else if (expr instanceof InfixExpression) {
+            return Math.max(lets(((InfixExpression) expr).left), lets(((InfixExpression) expr).right));
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            return Math.max(lets(e.conditional), Math.max(lets(e.consequence), lets(e.alternative)));
+        } else if (let(expr) != null) {
+            return Math.max(lets(((FunctionCall) expr).argument), 1 + lets(let(expr).body));
+        } else if (expr instanceof FunctionCall) {
+            return Math.max(lets(((FunctionCall) expr).function), lets(((FunctionCall) expr).argument));
+        } else if (expr instanceof PairExpr) {
+            return Math.max(lets(((PairExpr) expr).left), lets(((PairExpr) expr).right));
+        } else if (expr instanceof CarExpr) {
+            return lets(((CarExpr) expr).list);
+        } else if (expr instanceof CdrExpr) {
+            return lets(((CdrExpr) expr).list);
+        }
+        return 0;
+    }
+
+    private static int arithmetic(String operator) {
+        switch (operator) {
+            case "+":
+                return MethodWriter.IADD;
+            case "-":
+                return MethodWriter.ISUB;
+            case "*":
+                return MethodWriter.IMUL;
+            case "/":
+                return MethodWriter.IDIV;
+            case "mod":
+                return MethodWriter.IREM;
+            default:
+                return 0;
+        }
+    }
+}
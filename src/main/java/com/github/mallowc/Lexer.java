@@ -1,189 +1,112 @@
 package com.github.mallowc;
 
-import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Map;
-
-public class Lexer {
-    String input;
-    int position = 0;
-    int readPosition = 0;
-    char ch = 0;
-    private Map<String, TokenType> keywords = new Hashtable<>();
-
-    private void setKeywordTable() {
-        keywords.put("define", TokenType.DEFINE);
-        keywords.put("as", TokenType.AS);
-        keywords.put("end", TokenType.END);
-        keywords.put("puts", TokenType.PUTS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("not", TokenType.NOT);
-        keywords.put("if", TokenType.IF);
-        keywords.put("then", TokenType.THEN);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("or", TokenType.OR);
-        keywords.put("and", TokenType.AND);
-        keywords.put("mod", TokenType.MODULO);
-        keywords.put("lambda", TokenType.LAMBDA);
-        keywords.put("pair", TokenType.PAIR);
-        keywords.put("car", TokenType.CAR);
-        keywords.put("cdr", TokenType.CDR);
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/*
+ * Text of a Reader seen through a window that slides forward. Characters are
+ * read when first asked for and dropped by release, index 0 is always the
+ * first character not yet released. The length is unknown until the end of
+ * the input, charAt returns 0 past it like the cursor expects.
+ */
+class ReaderSequence implements CharSequence {
+    private final Reader reader;
+    private char[] window = new char[8192];
+    // window[offset, limit) holds the text from index 0 on
+    private int offset;
+    private int limit;
+    private boolean done;
+
+    public ReaderSequence(Reader r) {
+        reader = r;
     }
 
-    private TokenType lookUpIdentifier(String s) {
-        TokenType t = keywords.get(s);
-        if (t == null) {
-            return TokenType.IDENTIFIER;
-        } else {
-            return t;
+    @Override
+    public char charAt(int index) {
+        while (offset + index >= limit) {
+            if (!fill()) {
+                return 0;
+            }
         }
+        return window[offset + index];
     }
 
-    public Lexer(String source) {
-        input = source;
-        setKeywordTable();
-        advance();
+    // forget the first count characters, they will not be asked for again
+    void release(int count) {
+        offset += count;
     }
 
-    private void advance() {
-        if (readPosition >= input.length()) {
-            ch = 0;
-        } else {
-            ch = input.charAt(readPosition);
+    private boolean fill() {
+        if (done) {
+            return false;
         }
-        position = readPosition;
-        readPosition += 1;
-    }
-
-    private void skipWhiteSpace() {
-        while (Character.isWhitespace(ch)) {
-            advance();
+        if (limit == window.length) {
+            int kept = limit - offset;
+            if (kept > window.length / 2) {
+                window = Arrays.copyOf(window, window.length * 2);
+            }
+            System.arraycopy(window, offset, window, 0, kept);
+            offset = 0;
+            limit = kept;
+        }
+        try {
+            int n = reader.read(window, limit, window.length - limit);
+            if (n < 0) {
+                done = true;
+                return false;
+            }
+            limit += n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    // Add in the future: string interpolation using ^ or +
-    //                    f"{expr}"
-    private String readString() {
-        int pos = position + 1;
-        while (true) {
-            advance();
-            if (ch == '"' || ch == 0) break;
-        }
-        return input.substring(pos,position);
+    @Override
+    public int length() {
+        return Integer.MAX_VALUE;
     }
 
-    private String readIdentifier() {
-        int pos = position;
-        while (Character.isLetter(ch) || ch == '?' || Character.isDigit(ch)) {
-            advance();
-        }
-        return input.substring(pos,position);
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(window, offset + start, end - start);
     }
 
-    // In the future numbers will be float64, but for now lets just work with integers.
-    private String readNumber() {
-        int pos = position;
-        while (Character.isDigit(ch)) {
-            advance();
-        }
-        return input.substring(pos,position);
+    @Override
+    public String toString() {
+        return new String(window, offset, limit - offset);
     }
+}
 
-    private char peek() {
-        if (readPosition >= input.length()) {
-            return 0;
-        } else {
-            return input.charAt(readPosition);
-        }
+/*
+ * Token stream for the Parser on top of TokenCursor. Keywords and operators
+ * share one literal per type, only identifiers, numbers, strings and
+ * illegal characters copy their text out of the input.
+ */
+public class Lexer {
+    TokenCursor cursor;
+    // set when lexing a Reader, consumed text is released after every token
+    ReaderSequence stream;
+
+    public Lexer(CharSequence source) {
+        cursor = new TokenCursor(source);
     }
 
-    private boolean isAtEnd() {
-        return peek() == 0;
+    public Lexer(Reader reader) {
+        stream = new ReaderSequence(reader);
+        cursor = new TokenCursor(stream);
     }
 
     public Token nextToken() {
-        Token tok;
-        skipWhiteSpace();
-        switch (ch) {
-            case '"':
-                tok = new Token(TokenType.STRING, readString());
-                break;
-            case '+':
-                tok = new Token(TokenType.PLUS, String.valueOf(ch));
-                break;
-            case '-':
-                tok = new Token(TokenType.MINUS, String.valueOf(ch));
-                break;
-
-            case '.':
-                tok = new Token(TokenType.DOT, String.valueOf(ch));
-                break;
-
-            case '/':
-                tok = new Token(TokenType.SLASH, String.valueOf(ch));
-                break;
-
-            case '*':
-                tok = new Token(TokenType.ASTERISK, String.valueOf(ch));
-                break;
-
-            case '|':
-                tok = new Token(TokenType.PIPE, String.valueOf(ch));
-                break;
-
-            case '=':
-                tok = new Token(TokenType.EQUAL, String.valueOf(ch));
-                break;
-
-            case '~':
-                if (peek() == '=') {
-                    advance();
-                    tok = new Token(TokenType.NOT_EQUAL, "~=");
-                } else {
-                    tok = new Token(TokenType.ILLEGAL, String.valueOf(ch));
-                }
-                break;
-
-            case '(':
-                tok = new Token(TokenType.LPAREN, String.valueOf(ch));
-                break;
-
-            case ')':
-                tok = new Token(TokenType.RPAREN, String.valueOf(ch));
-                break;
-
-            case '<':
-                tok = new Token(TokenType.LT, String.valueOf(ch));
-                break;
-
-            case '>':
-                tok = new Token(TokenType.GT, String.valueOf(ch));
-                break;
-
-            case 0:
-                tok = new Token(TokenType.EOF, String.valueOf(ch));
-                break;
-
-            default:
-                if (Character.isLetter(ch)) {
-                    String literal = readIdentifier();
-                    tok = new Token(lookUpIdentifier(literal), literal);
-                    return tok;
-
-                } else if (Character.isDigit(ch)) {
-                    tok = new Token(TokenType.NUMBER, readNumber());
-                    return tok;
-                } else {
-                    tok = new Token(TokenType.ILLEGAL, String.valueOf(ch));
-                    break;
-                }
+        TokenType type = cursor.next();
+        String literal = TokenCursor.fixedLiteral(type);
+        Token token = new Token(type, literal != null ? literal : cursor.text());
+        if (stream != null) {
+            stream.release(cursor.position);
+            cursor.position = 0;
         }
-
-        advance();
-        return tok;
+        return token;
     }
-
 }
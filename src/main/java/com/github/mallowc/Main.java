@@ -1,39 +1,433 @@
 package com.github.mallowc;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Scanner;
 
 public class Main {
-    public static void main(String[] args) throws IOException {
-        if (args.length != 1) {
-            System.err.println("usage: ./mallow <filepath>");
+    /*
+     * Deep non-tail recursion is bounded by the Java stack of the thread
+     * running the program. --stack-size=SIZE sets it, in bytes or with a k,
+     * m or g suffix like -Xss, for the daemon that is per request.
+     */
+    static long stackSize = 1L << 30;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (String arg : args) {
+            if (arg.startsWith("--stack-size=")) {
+                try {
+                    stackSize = parseSize(arg.substring("--stack-size=".length()));
+                } catch (MallowError e) {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+                }
+            }
+        }
+        Thread thread = new Thread(null, () -> {
+            try {
+                run(args);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (MallowError e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }, "main", stackSize);
+        thread.setUncaughtExceptionHandler((t, e) -> {
+            System.err.print("Exception in thread \"" + t.getName() + "\" ");
+            e.printStackTrace();
+            System.exit(1);
+        });
+        thread.start();
+        thread.join();
+    }
+
+    static long parseSize(String size) {
+        String digits = size.toLowerCase();
+        int shift = digits.endsWith("k") ? 10 : digits.endsWith("m") ? 20 : digits.endsWith("g") ? 30 : 0;
+        if (shift > 0) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            return Long.parseLong(digits) << shift;
+        } catch (NumberFormatException e) {
+            throw new MallowError("not a size: " + size);
+        }
+    }
+
+    // the value of a --name=N option, a whole number no smaller than least
+    static int parseCount(String arg, int least) {
+        String name = arg.substring(0, arg.indexOf('='));
+        String count = arg.substring(name.length() + 1);
+        try {
+            int n = Integer.parseInt(count);
+            if (n >= least) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // reported below like a number that is too small
+        }
+        throw new MallowError(name + " needs a whole number of at least " + least + ", not " + count);
+    }
+
+    private static void run(String[] args) throws IOException {
+        String path = null;
+        boolean lazy = false;
+        String engine = "tree";
+        boolean disassemble = false;
+        boolean memoizePure = false;
+        boolean memoStats = false;
+        int memoSize = 4096;
+        boolean useCache = true;
+        boolean lexOnly = false;
+        boolean stream = false;
+        boolean dumpAst = false;
+        boolean daemon = false;
+        boolean client = false;
+        String socket = null;
+        String profile = null;
+        Optimizer optimizer = new Optimizer();
+        int threads = 0;
+        Charset charset = StandardCharsets.UTF_8;
+        for (String arg : args) {
+            if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--disassemble")) {
+                disassemble = true;
+            } else if (arg.startsWith("--encoding=")) {
+                charset = Charset.forName(arg.substring("--encoding=".length()));
+            } else if (arg.equals("--parallel")) {
+                threads = Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--parallel=")) {
+                threads = parseCount(arg, 1);
+            } else if (arg.equals("--off-heap-lists")) {
+                IntList.offHeap = true;
+            } else if (arg.equals("--stream")) {
+                stream = true;
+            } else if (arg.equals("--dump-ast")) {
+                dumpAst = true;
+            } else if (arg.equals("--daemon")) {
+                daemon = true;
+            } else if (arg.equals("--client")) {
+                client = true;
+            } else if (arg.startsWith("--socket=")) {
+                socket = arg.substring("--socket=".length());
+            } else if (optimizer.option(arg)) {
+                // --no-optimize and the rewrites it turns off
+            } else if (arg.equals("--lex-only")) {
+                lexOnly = true;
+            } else if (arg.equals("--no-cache")) {
+                useCache = false;
+            } else if (arg.equals("--memoize-pure")) {
+                memoizePure = true;
+            } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                profile = arg.length() > "--profile=".length() ? arg.substring("--profile=".length()) : "profile.folded";
+                System.setProperty("mallow.profile", "true");
+            } else if (arg.equals("--metrics")) {
+                System.setProperty("mallow.metrics", "true");
+            } else if (arg.equals("--memo-stats")) {
+                memoStats = true;
+            } else if (arg.startsWith("--memo-size=")) {
+                memoSize = parseCount(arg, 0);
+            } else if (arg.startsWith("--stack-size=")) {
+                // taken by main before this thread started
+            } else if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
+            } else if (arg.startsWith("--") || path != null) {
+                path = null;
+                break;
+            } else {
+                path = arg;
+            }
+        }
+
+        if (Metrics.ON) {
+            Metrics.register();
+        }
+
+        if (daemon && path == null && !client) {
+            new Daemon().serve(socket != null ? Paths.get(socket) : Daemon.defaultSocket());
+            return;
+        } else if (client && path != null) {
+            String source;
+            try {
+                source = path.equals("-") ? new String(System.in.readAllBytes(), charset)
+                        : Files.readString(Paths.get(path), charset);
+            } catch (NoSuchFileException e) {
+                System.out.printf("cannot find %s: No such file or directory\n", path);
+                return;
+            }
+            // the daemon runs the program with the options a request carries, any other would be lost
+            ArrayList<String> options = new ArrayList<>();
+            ArrayList<String> local = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.equals("--client") || arg.startsWith("--socket=")) {
+                    continue;
+                } else if (Daemon.carried(arg)) {
+                    options.add(arg);
+                } else if (arg.startsWith("--")) {
+                    System.err.printf("%s cannot be combined with --client, the daemon runs the tree engine "
+                            + "with --lazy, --memoize-pure, --memo-size, --encoding, --stack-size, --no-cache "
+                            + "and the --no-* rewrites only\n", arg);
+                    System.exit(1);
+                }
+                local.add(arg);
+            }
+            int status = Daemon.client(socket != null ? Paths.get(socket) : Daemon.defaultSocket(), options, source);
+            if (status < 0) {
+                // no daemon, run it here with the same options
+                run(local.toArray(new String[0]));
+            } else if (status > 0) {
+                System.exit(status);
+            }
+            return;
+        }
+
+        if (path == null || daemon || !(engine.equals("tree") || engine.equals("jit") || engine.equals("vm"))) {
+            System.err.println("usage: ./mallow [--lazy] [--engine=tree|jit|vm] [--disassemble]\n"
+                    + "                [--memoize-pure] [--memo-size=N] [--memo-stats] [--no-cache] [--encoding=NAME] [--lex-only]\n"
+                    + "                [--parallel[=N]] [--off-heap-lists] [--stream] [--dump-ast]\n"
+                    + "                [--no-optimize] [--no-fold] [--no-branches] [--no-beta] [--no-cse]\n"
+                    + "                [--profile[=PATH]] [--metrics] [--stack-size=SIZE]\n"
+                    + "                [--client] [--socket=PATH] <filepath | ->\n"
+                    + "       ./mallow --daemon [--socket=PATH] [--metrics] [--stack-size=SIZE]");
+        } else if (stream || path.equals("-")) {
+            if (engine.equals("jit") || disassemble || memoizePure || lexOnly || dumpAst || threads > 0) {
+                System.err.println("--stream runs one statement at a time and cannot be combined with "
+                        + "--engine=jit, --disassemble, --memoize-pure, --parallel, --dump-ast or --lex-only");
+                System.exit(1);
+            }
+            Evaluator evaluator = new Evaluator();
+            evaluator.memoCapacity = memoSize;
+            evaluator.memos = memoStats ? new ArrayList<>() : null;
+            setLazy(evaluator, lazy, engine);
+            if (profile != null) {
+                startProfiler(evaluator, engine, threads);
+            }
+            ScriptEvent script = new ScriptEvent();
+            script.begin();
+            try {
+                stream(path, charset, engine, evaluator, optimizer);
+            } finally {
+                commit(script, path, engine);
+            }
+            if (memoStats) {
+                printMemoStats(evaluator);
+            }
+            if (profile != null) {
+                printProfile(evaluator.profiler, profile);
+            }
         } else {
-            String source = read_file(args[0]);
-            Preprocessor preprocessor = new Preprocessor(args[0]);
-            source = preprocessor.include();
+            Preprocessor preprocessor = new Preprocessor(path, charset);
+            if (dumpAst) {
+                // stdout is for the program
+                preprocessor.report = System.err;
+            }
+            String source = preprocessor.include();
+            if (lexOnly) {
+                lex(source);
+                return;
+            }
             Enviroment env = new Enviroment();
-            Parser parser = new Parser(source);
-            Ast code = parser.parseProgram();
+            AstCache cache = useCache ? new AstCache(AstCache.defaultDirectory()) : null;
+            Ast code = cache != null ? cache.load(source) : null;
+            boolean parsed = true;
+            if (code == null) {
+                Parser parser = new Parser(source);
+                code = parser.parseProgram();
+                parsed = parser.errors.isEmpty();
+                if (cache != null && parsed) {
+                    cache.store(source, code);
+                }
+            }
+            // the cache keeps the tree as parsed, the optimizer settings may differ next run
+            if (parsed) {
+                optimizer.optimize(code);
+            }
+            if (dumpAst) {
+                for (String pragma : preprocessor.pragmas) {
+                    System.out.printf("pragma \"%s\"\n", pragma);
+                }
+                System.out.print(AstPrinter.print(code));
+                return;
+            }
             Evaluator evaluator = new Evaluator();
-            MallowObject result = evaluator.eval(code, env);
+            evaluator.memoCapacity = memoSize;
+            evaluator.memos = memoStats ? new ArrayList<>() : null;
+            setLazy(evaluator, lazy || preprocessor.pragmas.contains("lazy"), engine);
+            if (memoizePure) {
+                new Memoizer().memoize(code);
+            }
+            if (threads > 0) {
+                // forked operands would force shared thunks from several threads
+                if (!engine.equals("tree") || evaluator.lazy) {
+                    System.err.println("--parallel needs the tree engine without lazy evaluation");
+                    System.exit(1);
+                }
+                new Parallelizer().parallelize(code);
+                evaluator.parallelize(threads);
+            }
+            if (profile != null) {
+                startProfiler(evaluator, engine, threads);
+            }
+            ScriptEvent script = new ScriptEvent();
+            script.begin();
+            try {
+                if (disassemble || engine.equals("vm")) {
+                    VmProgram program = new VmCompiler().compile(code);
+                    if (disassemble) {
+                        System.out.print(program.disassemble());
+                    } else {
+                        new Vm(evaluator, program).run(program.main, env);
+                    }
+                } else if (engine.equals("jit")) {
+                    new JitCompiler(evaluator).run(code, env);
+                } else {
+                    MallowObject result = evaluator.eval(code, env);
+                }
+            } finally {
+                env.out.flush();
+                commit(script, path, engine);
+            }
+            if (memoStats) {
+                printMemoStats(evaluator);
+            }
+            if (profile != null) {
+                printProfile(evaluator.profiler, profile);
+            }
         }
     }
 
-    private static String read_file(String filepath) {
-        StringBuilder output = new StringBuilder(new StringBuilder());
-        try {
-            File f = new File(filepath);
-            Scanner s = new Scanner(f);
-            while (s.hasNext()) {
-                output.append(s.next());
-                if (s.hasNextLine()) {
-                    output.append("\n");
+    private static void commit(ScriptEvent event, String path, String engine) {
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.engine = engine;
+            event.commit();
+        }
+    }
+
+    private static void setLazy(Evaluator evaluator, boolean lazy, String engine) {
+        if (lazy && !engine.equals("tree")) {
+            System.err.printf("lazy evaluation is not supported by the %s engine\n", engine);
+            System.exit(1);
+        }
+        evaluator.lazy = lazy;
+    }
+
+    private static void printMemoStats(Evaluator evaluator) {
+        for (MemoFunction memo : evaluator.memos) {
+            System.err.printf("memo %s: %d hits, %d misses, %d cached\n",
+                    memo.name, memo.hits, memo.misses, memo.size());
+        }
+    }
+
+    // the profiler counts on one thread running the code the tree engine compiles
+    private static void startProfiler(Evaluator evaluator, String engine, int threads) {
+        if (!engine.equals("tree") || threads > 0) {
+            System.err.println("--profile needs the tree engine without --parallel");
+            System.exit(1);
+        }
+        evaluator.profiler = Profiler.current = new Profiler();
+    }
+
+    // the report to stderr, the folded stacks to path
+    private static void printProfile(Profiler profiler, String path) throws IOException {
+        profiler.finish();
+        System.out.flush();
+        profiler.report(System.err);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path)))) {
+            profiler.writeFolded(out);
+        }
+        System.err.printf("folded stacks written to %s\n", path);
+    }
+
+    /*
+     * Runs each statement as soon as it is parsed and then drops it, so
+     * output starts right away and memory does not grow with the length of
+     * the input. The source is never expanded as a whole: include and pragma
+     * are statements here and take effect where they appear.
+     */
+    private static void stream(String path, Charset charset, String engine, Evaluator evaluator,
+            Optimizer optimizer) throws IOException {
+        Reader reader;
+        if (path.equals("-")) {
+            reader = new InputStreamReader(System.in, charset);
+        } else {
+            try {
+                reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), charset);
+            } catch (NoSuchFileException e) {
+                System.out.printf("cannot find %s: No such file or directory\n", path);
+                return;
+            }
+        }
+
+        Preprocessor libraries = new Preprocessor(path, charset);
+        Enviroment env = new Enviroment();
+        Parser parser = new Parser(new Lexer(reader));
+        Statement stmt;
+        while ((stmt = parser.nextStatement()) != null) {
+            if (!(stmt instanceof DirectiveStmt)) {
+                execute(stmt, engine, evaluator, env, parser.errors.isEmpty() ? optimizer : null);
+                continue;
+            }
+            DirectiveStmt directive = (DirectiveStmt) stmt;
+            if (directive.token.type == TokenType.INCLUDE) {
+                String text = libraries.includeLibrary(directive.argument);
+                Parser library = new Parser(text);
+                for (Statement s : library.parseProgram().statements) {
+                    execute(s, engine, evaluator, env, library.errors.isEmpty() ? optimizer : null);
                 }
+            } else {
+                libraries.pragmas.add(directive.argument);
             }
-        } catch (FileNotFoundException e) {
-            System.out.printf("cannot find %s: No such file or directory\n", filepath);
+            if (libraries.pragmas.contains("lazy")) {
+                setLazy(evaluator, true, engine);
+            }
+        }
+        reader.close();
+    }
+
+    // optimizer is null after a parse error, the tree may have holes
+    private static void execute(Statement stmt, String engine, Evaluator evaluator, Enviroment env,
+            Optimizer optimizer) {
+        Ast single = new Ast();
+        single.statements.add(stmt);
+        if (optimizer != null) {
+            // one statement at a time: calls to globals defined earlier are not known to be pure
+            optimizer.optimize(single);
+        }
+        try {
+            if (engine.equals("vm")) {
+                VmProgram program = new VmCompiler().compile(single);
+                new Vm(evaluator, program).run(program.main, env);
+            } else {
+                evaluator.eval(stmt, env);
+            }
+        } finally {
+            // what a statement printed shows before the next one is even read
+            env.out.flush();
+        }
+    }
+
+    // tokenize without parsing, for measuring the lexer
+    private static void lex(String source) {
+        LexEvent event = new LexEvent();
+        event.begin();
+        long start = System.nanoTime();
+        TokenCursor cursor = new TokenCursor(source);
+        long tokens = 0;
+        while (cursor.next() != TokenType.EOF) {
+            tokens++;
         }
-        return output.toString();
+        event.tokens = tokens;
+        event.characters = source.length();
+        event.commit();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d tokens, %.1f MB in %.0f ms, %.1f MB/s\n",
+                tokens, source.length() / 1e6, seconds * 1000, source.length() / 1e6 / seconds);
     }
-}
\ No newline at end of file
+}
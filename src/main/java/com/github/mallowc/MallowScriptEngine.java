@@ -0,0 +1,240 @@
+package com.github.mallowc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/*
+ * javax.script entry point. A script is preprocessed, parsed, optimized
+ * and compiled to a Code tree once, by compile(), and the resulting
+ * MallowCompiledScript can then be evaluated any number of times, from
+ * any number of threads at once. Runs use the tree engine.
+ */
+public class MallowScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final ScriptEngineFactory factory;
+    // libraries whose definitions the bindings already hold, including them does nothing
+    final Set<String> preloaded = new HashSet<>();
+
+    public MallowScriptEngine(ScriptEngineFactory f) {
+        factory = f;
+        if (Metrics.ON) {
+            Metrics.register();
+        }
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(script, new Optimizer(), new Evaluator(), false, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * With the settings of a command line, for the daemon: the rewrites of
+     * optimizer, whether evaluator is lazy and how many results a memo
+     * keeps, --memoize-pure and the encoding of included files.
+     */
+    CompiledScript compile(String script, Optimizer optimizer, Evaluator evaluator, boolean memoizePure,
+            Charset charset) throws ScriptException {
+        Preprocessor preprocessor = new Preprocessor(String.valueOf(get(ScriptEngine.FILENAME)), charset);
+        preprocessor.strict = true;
+        for (String lib : preloaded) {
+            preprocessor.skip(lib);
+        }
+        String source;
+        try {
+            source = preprocessor.includeText(script);
+        } catch (MallowError e) {
+            throw new ScriptException(e.getMessage());
+        }
+        Parser parser = new Parser(source);
+        parser.echo = false;
+        Ast program = parser.parseProgram();
+        if (!parser.errors.isEmpty()) {
+            throw new ScriptException(String.join("\n", parser.errors));
+        }
+        optimizer.optimize(program);
+        if (memoizePure) {
+            new Memoizer().memoize(program);
+        }
+
+        // its own evaluator: the code is bound to it and compiling writes to its resolver
+        evaluator.lazy |= preprocessor.pragmas.contains("lazy");
+        return new MallowCompiledScript(this, evaluator.compile(program));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder out = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                out.append(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return out.toString();
+    }
+
+    static MallowObject toMallow(Object value) {
+        if (value == null) {
+            return Evaluator.NIL;
+        } else if (value instanceof MallowObject) {
+            return (MallowObject) value;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return MallowInteger.of(((Number) value).intValue());
+        } else if (value instanceof Long && (long) (int) (long) value == (long) value) {
+            return MallowInteger.of((int) (long) value);
+        } else if (value instanceof Boolean) {
+            return Evaluator.nativeBooleanToMallowBoolean((Boolean) value);
+        } else if (value instanceof String || value instanceof Character) {
+            return new MallowString(value.toString());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            MallowObject result = Evaluator.NIL;
+            for (int i = list.size() - 1; i >= 0; i--) {
+                result = IntList.cons(toMallow(list.get(i)), result);
+            }
+            return result;
+        }
+        throw new MallowError("cannot pass a " + value.getClass().getName() + " to mallow");
+    }
+
+    // lists become java.util.List, streams and functions are handed out as they are
+    static Object toJava(MallowObject value) {
+        if (value instanceof Thunk) {
+            value = ((Thunk) value).force();
+        }
+        if (value == null || value instanceof MallowNil) {
+            return null;
+        } else if (value instanceof MallowInteger) {
+            return ((MallowInteger) value).value;
+        } else if (value instanceof MallowString) {
+            return ((MallowString) value).value;
+        } else if (value instanceof MallowBoolean) {
+            return value == Evaluator.TRUE;
+        } else if (value instanceof MallowList && !(value instanceof MallowStream)) {
+            ArrayList<Object> list = new ArrayList<>();
+            MallowObject rest = value;
+            for (; rest instanceof MallowList && !(rest instanceof MallowStream); rest = ((MallowList) rest).cdr()) {
+                list.add(toJava(((MallowList) rest).car()));
+            }
+            if (!(rest instanceof MallowNil)) {
+                return value;
+            }
+            return list;
+        }
+        return value;
+    }
+}
+
+/*
+ * Every eval runs in fresh globals of its own, so what the script defines
+ * is never seen by another run. Names it does not define are looked up in
+ * the ENGINE_SCOPE and then the GLOBAL_SCOPE bindings of the context, which
+ * are only read. The Code tree itself holds no state of a run.
+ */
+class MallowCompiledScript extends CompiledScript {
+    final MallowScriptEngine engine;
+    final Code code;
+
+    public MallowCompiledScript(MallowScriptEngine e, Code c) {
+        engine = e;
+        code = c;
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        Enviroment shared = new Enviroment(new BindingsView(context.getBindings(ScriptContext.GLOBAL_SCOPE)), null);
+        Enviroment scope = new Enviroment(new BindingsView(context.getBindings(ScriptContext.ENGINE_SCOPE)), shared);
+        Enviroment env = new Enviroment(new HashMap<>(), scope);
+        env.out = new Sink(context.getWriter());
+        try {
+            return MallowScriptEngine.toJava(code.exec(env));
+        } catch (MallowError e) {
+            throw new ScriptException(e.getMessage());
+        } catch (RuntimeException e) {
+            throw new ScriptException(e);
+        } catch (StackOverflowError e) {
+            ScriptException error = new ScriptException("stack overflow");
+            error.initCause(e);
+            throw error;
+        } finally {
+            env.out.flush();
+        }
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+}
+
+// read-only view of script bindings as mallow values, null bindings are empty
+class BindingsView extends AbstractMap<String, MallowObject> {
+    final Bindings bindings;
+
+    public BindingsView(Bindings b) {
+        bindings = b;
+    }
+
+    @Override
+    public MallowObject get(Object name) {
+        if (bindings == null || !bindings.containsKey(name)) {
+            return null;
+        }
+        return MallowScriptEngine.toMallow(bindings.get(name));
+    }
+
+    @Override
+    public Set<Map.Entry<String, MallowObject>> entrySet() {
+        Map<String, MallowObject> copy = new HashMap<>();
+        if (bindings != null) {
+            for (Map.Entry<String, Object> e : bindings.entrySet()) {
+                copy.put(e.getKey(), MallowScriptEngine.toMallow(e.getValue()));
+            }
+        }
+        return copy.entrySet();
+    }
+}
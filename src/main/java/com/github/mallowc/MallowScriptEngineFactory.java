@@ -0,0 +1,85 @@
+package com.github.mallowc;
+
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/*
+ * Registered in META-INF/services, so new ScriptEngineManager()
+ * .getEngineByName("mallow") finds it on the class path.
+ */
+public class MallowScriptEngineFactory implements ScriptEngineFactory {
+    @Override
+    public String getEngineName() {
+        return "mallow";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("mallow");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("text/x-mallow");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("mallow", "Mallow");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "mallow";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return getNames().get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // runs share nothing and never write to the bindings
+            case "THREADING": return "STATELESS";
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        // no methods, the closest is a function applied to the object and then the arguments
+        StringBuilder out = new StringBuilder("(" + m + " | " + obj + ")");
+        for (String arg : args) {
+            out.insert(0, "(").append(" | ").append(arg).append(")");
+        }
+        return out.toString();
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "puts \"" + toDisplay + "\"";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        return String.join("\n", statements);
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new MallowScriptEngine(this);
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.mallowc;
+
+import java.util.ArrayList;
+
+/*
+ * Wraps pure top-level functions in memo for --memoize-pure. A function is
+ * pure, see Purity, when nothing it reaches, itself included, is a global
+ * that is never defined or defined more than once: its result then only
+ * depends on the argument.
+ */
+public class Memoizer {
+    public void memoize(Ast program) {
+        Purity purity = new Purity(program, true);
+
+        for (Statement s : program.statements) {
+            if (!(s instanceof DefineStmt) || !(((DefineStmt) s).value instanceof FunctionLiteral)) {
+                continue;
+            }
+            DefineStmt stmt = (DefineStmt) s;
+            if (purity.pure(stmt.value, new ArrayList<String>())) {
+                MemoExpr memo = new MemoExpr(new Token(TokenType.MEMO, "memo"));
+                memo.function = stmt.value;
+                memo.name = stmt.name.value;
+                stmt.value = memo;
+            }
+        }
+    }
+}
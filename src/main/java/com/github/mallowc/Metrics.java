@@ -0,0 +1,179 @@
+package com.github.mallowc;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/*
+ * --metrics, or -Dmallow.metrics=true when mallow is embedded: counts of
+ * interpreter activity, published as the MBean
+ * com.github.mallowc:type=Interpreter. Like Profiler.ON, ON is read once,
+ * so without it the JIT drops the counting altogether. The counts are
+ * shared by every thread and every evaluator in the JVM. The deepest
+ * recursion is the most calls a single thread had in progress at once,
+ * tail calls not included since they do not nest.
+ *
+ * Statements and defines are only seen on the tree engine, the other two
+ * compile them into code of their own.
+ */
+class Metrics implements MetricsMBean {
+    static final boolean ON = Boolean.getBoolean("mallow.metrics");
+    static final Metrics INSTANCE = new Metrics();
+
+    final LongAdder statements = new LongAdder();
+    final LongAdder applications = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    private final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+    private volatile int deepest;
+
+    static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                    new ObjectName("com.github.mallowc:type=Interpreter"));
+        } catch (InstanceAlreadyExistsException e) {
+            // an engine of this JVM did it already
+        } catch (JMException e) {
+            throw new MallowError("cannot register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    static void statement() {
+        if (ON) {
+            INSTANCE.statements.increment();
+        }
+    }
+
+    static void application() {
+        if (ON) {
+            INSTANCE.applications.increment();
+        }
+    }
+
+    static void environment() {
+        if (ON) {
+            INSTANCE.environments.increment();
+        }
+    }
+
+    void enter() {
+        int[] calls = depth.get();
+        if (++calls[0] > deepest) {
+            synchronized (this) {
+                deepest = Math.max(deepest, calls[0]);
+            }
+        }
+    }
+
+    void exit() {
+        depth.get()[0]--;
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getFunctionApplications() {
+        return applications.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public int getDeepestRecursion() {
+        return deepest;
+    }
+
+    @Override
+    public synchronized void reset() {
+        statements.reset();
+        applications.reset();
+        environments.reset();
+        deepest = 0;
+    }
+
+    // what a SlowCallEvent names the function by
+    static String describe(MallowObject fn) {
+        if (fn instanceof MallowFunction) {
+            String name = ((MallowFunction) fn).chain.get(0).name;
+            return name != null ? name : "lambda";
+        } else if (fn instanceof MallowBuiltin) {
+            return ((MallowBuiltin) fn).name;
+        } else if (fn instanceof MemoFunction) {
+            return ((MemoFunction) fn).name;
+        }
+        return fn.Type();
+    }
+}
+
+/*
+ * Flight recorder events, recorded like any other, e.g. with java
+ * -XX:StartFlightRecording:filename=mallow.jfr,mallow.SlowCall#threshold=1ms
+ * -jar Mallow.jar. Timing every call costs even while nothing records it,
+ * so mallow.SlowCall needs --metrics as well, the others are always there.
+ */
+@Name("mallow.Script")
+@Label("Script Execution")
+@Category("Mallow")
+class ScriptEvent extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Engine")
+    String engine;
+}
+
+@Name("mallow.Lex")
+@Label("Lex")
+@Category("Mallow")
+@Description("Tokenizing a program on its own, with --lex-only")
+class LexEvent extends Event {
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Characters")
+    long characters;
+}
+
+@Name("mallow.Parse")
+@Label("Parse")
+@Category("Mallow")
+@Description("Lexing and parsing a whole program, the lexer runs as the parser asks for tokens")
+class ParseEvent extends Event {
+    @Label("Statements")
+    int statements;
+
+    @Label("Errors")
+    int errors;
+}
+
+@Name("mallow.Define")
+@Label("Define")
+@Category("Mallow")
+@Description("Evaluating the value of a top-level define")
+class DefineEvent extends Event {
+    @Label("Name")
+    String name;
+}
+
+@Name("mallow.SlowCall")
+@Label("Slow Function Call")
+@Category("Mallow")
+@Description("A function application that took longer than the threshold, callees and tail calls included")
+@Threshold("10 ms")
+class SlowCallEvent extends Event {
+    @Label("Function")
+    String function;
+}
@@ -0,0 +1,14 @@
+package com.github.mallowc;
+
+// what com.github.mallowc:type=Interpreter shows in JMX, see Metrics
+public interface MetricsMBean {
+    long getStatementsExecuted();
+
+    long getFunctionApplications();
+
+    long getEnvironmentsAllocated();
+
+    int getDeepestRecursion();
+
+    void reset();
+}
@@ -0,0 +1,686 @@
+package com.github.mallowc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Simplifies the tree between parsing and compiling, for every engine.
+ * Each rewrite can be turned off on its own, see Main:
+ *
+ *   fold      arithmetic, comparisons, not and unary minus on literals
+ *   branches  an if whose condition is a literal becomes the branch taken
+ *   beta      (lambda x . body) | arg becomes body with arg for x, when arg
+ *             is a literal or a variable, so nothing is evaluated sooner
+ *   cse       a pure call that the same expression may evaluate more than
+ *             once is evaluated once, into a parameter of its own, when
+ *             nothing that can fail is evaluated before it
+ *
+ * Only what the engines agree on is folded: integer operations wrap like
+ * Java ints, division by zero and operands of the wrong type are left for
+ * the program to run into.
+ */
+public class Optimizer {
+    boolean fold = true;
+    boolean branches = true;
+    boolean beta = true;
+    boolean cse = true;
+
+    private Purity purity;
+    private int temporaries;
+    // every name the program uses, a temporary must not hide one
+    private Set<String> used = new HashSet<>();
+    // for cse: the shape of each node looked at, an id for every distinct shape and how often each shows up in the statement
+    private Map<Expression, Shape> shapes = new IdentityHashMap<>();
+    private Map<List<Object>, Integer> ids = new HashMap<>();
+    private Map<Integer, Integer> everywhere = new HashMap<>();
+
+    public void optimize(Ast program) {
+        for (Statement s : program.statements) {
+            if (fold || branches || beta) {
+                setValue(s, simplify(Parallelizer.value(s), new ArrayList<String>()));
+            }
+        }
+        if (cse) {
+            purity = new Purity(program);
+            used.clear();
+            for (Statement s : program.statements) {
+                if (s instanceof DefineStmt) {
+                    used.add(((DefineStmt) s).name.value);
+                }
+                use(Parallelizer.value(s));
+            }
+            for (Statement s : program.statements) {
+                count(Parallelizer.value(s));
+                setValue(s, eliminate(Parallelizer.value(s), new ArrayList<String>()));
+                shapes.clear();
+                ids.clear();
+                everywhere.clear();
+            }
+        }
+    }
+
+    // takes one of the --no-* flags of the command line, false for any other argument
+    boolean option(String arg) {
+        switch (arg) {
+            case "--no-optimize":
+                fold = branches = beta = cse = false;
+                return true;
+            case "--no-fold":
+                fold = false;
+                return true;
+            case "--no-branches":
+                branches = false;
+                return true;
+            case "--no-beta":
+                beta = false;
+                return true;
+            case "--no-cse":
+                cse = false;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void setValue(Statement s, Expression value) {
+        if (s instanceof DefineStmt) {
+            ((DefineStmt) s).value = value;
+        } else if (s instanceof PutsStmt) {
+            ((PutsStmt) s).value = value;
+        } else if (s instanceof ExpressionStatement) {
+            ((ExpressionStatement) s).expr = value;
+        }
+    }
+
+    // fold, branches and beta, children first so a folded operand can fold its parent
+    private Expression simplify(Expression expr, ArrayList<String> bound) {
+        if (expr instanceof PrefixExpression) {
+            PrefixExpression e = (PrefixExpression) expr;
+            e.right = simplify(e.right, bound);
+            return fold ? foldPrefix(e) : e;
+        } else if (expr instanceof InfixExpression) {
+            InfixExpression e = (InfixExpression) expr;
+            e.left = simplify(e.left, bound);
+            e.right = simplify(e.right, bound);
+            return fold ? foldInfix(e) : e;
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            e.conditional = simplify(e.conditional, bound);
+            e.consequence = simplify(e.consequence, bound);
+            e.alternative = simplify(e.alternative, bound);
+            if (branches && literal(e.conditional)) {
+                Expression taken = truthy(e.conditional) ? e.consequence : e.alternative;
+                return taken != null ? taken : nil();
+            }
+            return e;
+        } else if (expr instanceof FunctionLiteral) {
+            FunctionLiteral literal = (FunctionLiteral) expr;
+            bound.add(literal.parameter.value);
+            literal.body = simplify(literal.body, bound);
+            bound.remove(bound.size() - 1);
+            return literal;
+        } else if (expr instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) expr;
+            call.function = simplify(call.function, bound);
+            call.argument = simplify(call.argument, bound);
+            if (beta && call.function instanceof FunctionLiteral && trivial(call.argument, bound)) {
+                FunctionLiteral literal = (FunctionLiteral) call.function;
+                String name = literal.parameter.value;
+                if (!captured(literal.body, name, call.argument)) {
+                    // the substituted body may fold further
+                    return simplify(substitute(literal.body, name, call.argument), bound);
+                }
+            }
+            return call;
+        } else if (expr instanceof PairExpr) {
+            ((PairExpr) expr).left = simplify(((PairExpr) expr).left, bound);
+            ((PairExpr) expr).right = simplify(((PairExpr) expr).right, bound);
+        } else if (expr instanceof StreamExpr) {
+            ((StreamExpr) expr).left = simplify(((StreamExpr) expr).left, bound);
+            ((StreamExpr) expr).right = simplify(((StreamExpr) expr).right, bound);
+        } else if (expr instanceof CarExpr) {
+            ((CarExpr) expr).list = simplify(((CarExpr) expr).list, bound);
+        } else if (expr instanceof CdrExpr) {
+            ((CdrExpr) expr).list = simplify(((CdrExpr) expr).list, bound);
+        } else if (expr instanceof MemoExpr) {
+            ((MemoExpr) expr).function = simplify(((MemoExpr) expr).function, bound);
+        }
+        return expr;
+    }
+
+    private static Expression foldPrefix(PrefixExpression e) {
+        if (e.operator.equals("-") && e.right instanceof IntegerLiteral) {
+            return integer(-((IntegerLiteral) e.right).value);
+        } else if (e.operator.equals("not") && literal(e.right)) {
+            // not is true for false and nil, false for anything else
+            return bool(!truthy(e.right));
+        }
+        return e;
+    }
+
+    private static Expression foldInfix(InfixExpression e) {
+        if (e.left instanceof IntegerLiteral && e.right instanceof IntegerLiteral) {
+            int l = ((IntegerLiteral) e.left).value;
+            int r = ((IntegerLiteral) e.right).value;
+            switch (e.operator) {
+                case "+":
+                    return integer(l + r);
+                case "-":
+                    return integer(l - r);
+                case "*":
+                    return integer(l * r);
+                case "/":
+                    return r != 0 ? integer(l / r) : e;
+                case "mod":
+                    return r != 0 ? integer(l % r) : e;
+                case "<":
+                    return bool(l < r);
+                case ">":
+                    return bool(l > r);
+                case "=":
+                    return bool(l == r);
+                case "~=":
+                    return bool(l != r);
+                default:
+                    return e;
+            }
+        }
+        boolean equality = e.operator.equals("=") || e.operator.equals("~=");
+        if (equality && e.left instanceof BooleanLiteral && e.right instanceof BooleanLiteral) {
+            boolean same = ((BooleanLiteral) e.left).value == ((BooleanLiteral) e.right).value;
+            return bool(same == e.operator.equals("="));
+        } else if (equality && e.left instanceof NilLiteral && e.right instanceof NilLiteral) {
+            return bool(e.operator.equals("="));
+        }
+        return e;
+    }
+
+    private static boolean literal(Expression expr) {
+        return expr instanceof IntegerLiteral || expr instanceof BooleanLiteral
+                || expr instanceof StringLiteral || expr instanceof NilLiteral;
+    }
+
+    // Evaluator.isTruthy of a literal
+    private static boolean truthy(Expression literal) {
+        if (literal instanceof NilLiteral) {
+            return false;
+        } else if (literal instanceof BooleanLiteral) {
+            return ((BooleanLiteral) literal).value;
+        }
+        return true;
+    }
+
+    private static IntegerLiteral integer(int value) {
+        String text = String.valueOf(value);
+        return new IntegerLiteral(new Token(TokenType.NUMBER, text), text);
+    }
+
+    private static BooleanLiteral bool(boolean value) {
+        return new BooleanLiteral(new Token(value ? TokenType.TRUE : TokenType.FALSE, String.valueOf(value)), value);
+    }
+
+    private static NilLiteral nil() {
+        return new NilLiteral(new Token(TokenType.NIL, "nil"));
+    }
+
+    // an argument that costs nothing to evaluate and can fail in no way
+    private static boolean trivial(Expression argument, ArrayList<String> bound) {
+        return literal(argument)
+                || (argument instanceof Identifier && bound.contains(((Identifier) argument).value));
+    }
+
+    // whether substituting arg for name in expr would put it under a lambda that rebinds it
+    private static boolean captured(Expression expr, String name, Expression arg) {
+        if (!(arg instanceof Identifier)) {
+            return false;
+        }
+        String rebound = ((Identifier) arg).value;
+        return under(expr, name, rebound);
+    }
+
+    private static boolean under(Expression expr, String name, String rebound) {
+        if (expr instanceof FunctionLiteral) {
+            FunctionLiteral literal = (FunctionLiteral) expr;
+            if (literal.parameter.value.equals(name)) {
+                return false;
+            }
+            if (literal.parameter.value.equals(rebound)) {
+                return occurs(literal.body, name);
+            }
+            return under(literal.body, name, rebound);
+        }
+        for (Expression child : children(expr)) {
+            if (under(child, name, rebound)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // free occurrence of name in expr
+    private static boolean occurs(Expression expr, String name) {
+        if (expr instanceof Identifier) {
+            return ((Identifier) expr).value.equals(name);
+        } else if (expr instanceof FunctionLiteral && ((FunctionLiteral) expr).parameter.value.equals(name)) {
+            return false;
+        }
+        for (Expression child : children(expr)) {
+            if (occurs(child, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Expression substitute(Expression expr, String name, Expression arg) {
+        if (expr instanceof Identifier) {
+            return ((Identifier) expr).value.equals(name) ? copy(arg) : expr;
+        } else if (expr instanceof FunctionLiteral && ((FunctionLiteral) expr).parameter.value.equals(name)) {
+            return expr;
+        }
+        return replaceChildren(expr, child -> substitute(child, name, arg));
+    }
+
+    // a fresh node for every use, the Resolver writes the address of each Identifier into it
+    private static Expression copy(Expression expr) {
+        if (expr instanceof Identifier) {
+            return new Identifier(((Identifier) expr).token, ((Identifier) expr).value);
+        }
+        return expr;
+    }
+
+    /*
+     * Common subexpression elimination. expr is evaluated as a whole or not
+     * at all, and so is every part of it that is not behind an if, a lambda
+     * or a stream tail. When such a part contains a call and shows up again,
+     * there or behind an if, a lambda or a tail, expr becomes
+     *
+     *   (lambda $n . expr with $n for the part) | part
+     *
+     * so the part is evaluated once, before the rest instead of among it.
+     * Pure only means it reaches no undefined global: car nil, a division
+     * by zero or a call that never returns can still fail, in the part or
+     * in what comes before it. So the part must be the first thing expr
+     * evaluates that can fail, see reach, and then the order cannot show.
+     * A place under a lambda that rebinds one of the variables of the part
+     * means something else and is left alone. Then the same is done inside
+     * the lambda bodies, the branches and the tails.
+     */
+    private Expression eliminate(Expression expr, ArrayList<String> bound) {
+        if (expr == null) {
+            return null;
+        } else if (shape(expr).calls < 2) {
+            // nothing can repeat
+            return nested(expr, bound);
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        Map<Integer, Expression> parts = new LinkedHashMap<>();
+        collect(expr, counts, parts, true);
+        ArrayList<Expression> largest = new ArrayList<>(parts.values());
+        largest.sort((a, b) -> shape(b).size - shape(a).size);
+        Expression repeated = null;
+        for (Expression part : largest) {
+            int id = shape(part).id;
+            // a part seen once in the whole statement cannot show up again under expr
+            if ((counts.get(id) > 1 || (everywhere.getOrDefault(id, 0) > 1 && occurrences(expr, id, free(part)) > 1))
+                    && purity.pure(part, bound) && reach(expr, id, bound) == Reach.PART) {
+                repeated = part;
+                break;
+            }
+        }
+
+        if (repeated != null) {
+            String name = "cse" + temporaries++;
+            while (!used.add(name)) {
+                name = "cse" + temporaries++;
+            }
+            Identifier temporary = new Identifier(new Token(TokenType.IDENTIFIER, name), name);
+            FunctionLiteral let = new FunctionLiteral(new Token(TokenType.LAMBDA, "lambda"));
+            let.parameter = temporary;
+            let.body = replace(expr, shape(repeated).id, free(repeated), temporary);
+            FunctionCall call = new FunctionCall(new Token(TokenType.PIPE, "|"), let);
+            call.argument = repeated;
+            expr = call;
+        }
+        return nested(expr, bound);
+    }
+
+    // counts the parts of expr evaluated with it that contain a call, by their shape, and tells if expr does
+    private boolean collect(Expression expr, Map<Integer, Integer> counts, Map<Integer, Expression> parts, boolean top) {
+        boolean calls = expr instanceof FunctionCall;
+        for (Expression child : evaluated(expr)) {
+            calls |= collect(child, counts, parts, false);
+        }
+        if (calls && !top) {
+            int id = shape(expr).id;
+            counts.merge(id, 1, Integer::sum);
+            parts.putIfAbsent(id, expr);
+        }
+        return calls;
+    }
+
+    private enum Reach { PART, SAFE, FAILS }
+
+    /*
+     * How evaluating expr goes up to the first part of shape id: it gets
+     * there with nothing before it that can fail, it ends without getting
+     * there and without anything that can fail, or something it evaluates
+     * first can fail. With --lazy a parameter is a thunk forced where it is
+     * first read, so the argument of the cse lambda is evaluated at that
+     * first part all the same.
+     */
+    private Reach reach(Expression expr, int id, ArrayList<String> bound) {
+        if (shape(expr).id == id) {
+            return Reach.PART;
+        }
+        for (Expression child : evaluated(expr)) {
+            Reach reach = reach(child, id, bound);
+            if (reach != Reach.SAFE) {
+                return reach;
+            }
+        }
+        return safe(expr, bound) ? Reach.SAFE : Reach.FAILS;
+    }
+
+    /*
+     * Whether what expr does once its operands are evaluated cannot fail.
+     * Arithmetic on something other than an integer is nil, but / and mod
+     * throw on 0. A call, car, cdr, memo, native or the branch of an if can
+     * fail or run forever.
+     */
+    private boolean safe(Expression expr, ArrayList<String> bound) {
+        if (expr instanceof Identifier) {
+            return purity.pure(expr, bound);
+        } else if (expr instanceof InfixExpression) {
+            String operator = ((InfixExpression) expr).operator;
+            return !operator.equals("/") && !operator.equals("mod");
+        }
+        return literal(expr) || expr instanceof PrefixExpression || expr instanceof FunctionLiteral
+                || expr instanceof PairExpr || expr instanceof StreamExpr;
+    }
+
+    private void use(Expression expr) {
+        if (expr instanceof Identifier) {
+            used.add(((Identifier) expr).value);
+        } else if (expr instanceof FunctionLiteral) {
+            used.add(((FunctionLiteral) expr).parameter.value);
+        }
+        if (expr != null) {
+            for (Expression child : children(expr)) {
+                use(child);
+            }
+        }
+    }
+
+    private void count(Expression expr) {
+        if (expr != null) {
+            everywhere.merge(shape(expr).id, 1, Integer::sum);
+            for (Expression child : children(expr)) {
+                count(child);
+            }
+        }
+    }
+
+    private static class Shape {
+        final int id;
+        // nodes and calls in the part
+        final int size;
+        final int calls;
+
+        Shape(int id, int size, int calls) {
+            this.id = id;
+            this.size = size;
+            this.calls = calls;
+        }
+    }
+
+    /*
+     * Parts written the same have the same shape id, so telling them apart
+     * takes no more than comparing two ints. A node's shape is made once
+     * from those of its children, and dropped by rewrite when they change.
+     */
+    private Shape shape(Expression expr) {
+        Shape shape = shapes.get(expr);
+        if (shape == null) {
+            List<Object> key = new ArrayList<>();
+            key.add(expr.getClass());
+            key.add(label(expr));
+            int size = 1;
+            int calls = expr instanceof FunctionCall ? 1 : 0;
+            for (Expression child : children(expr)) {
+                Shape part = shape(child);
+                key.add(part.id);
+                size += part.size;
+                calls += part.calls;
+            }
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+            }
+            shape = new Shape(id, size, calls);
+            shapes.put(expr, shape);
+        }
+        return shape;
+    }
+
+    // what sets expr apart from a node of its class with the same children
+    private static Object label(Expression expr) {
+        if (expr instanceof Identifier) {
+            return ((Identifier) expr).value;
+        } else if (expr instanceof IntegerLiteral) {
+            return ((IntegerLiteral) expr).value;
+        } else if (expr instanceof BooleanLiteral) {
+            return ((BooleanLiteral) expr).value;
+        } else if (expr instanceof StringLiteral) {
+            return ((StringLiteral) expr).value;
+        } else if (expr instanceof PrefixExpression) {
+            return ((PrefixExpression) expr).operator;
+        } else if (expr instanceof InfixExpression) {
+            return ((InfixExpression) expr).operator;
+        } else if (expr instanceof FunctionLiteral) {
+            return ((FunctionLiteral) expr).parameter.value;
+        } else if (expr instanceof MemoExpr) {
+            return ((MemoExpr) expr).name;
+        } else if (expr instanceof NativeExpr) {
+            return ((NativeExpr) expr).name;
+        }
+        return "";
+    }
+
+    // the children evaluated whenever expr is, the rest may never be
+    private static ArrayList<Expression> evaluated(Expression expr) {
+        ArrayList<Expression> children = new ArrayList<>();
+        if (expr instanceof IfExpression) {
+            children.add(((IfExpression) expr).conditional);
+        } else if (expr instanceof StreamExpr) {
+            children.add(((StreamExpr) expr).left);
+        } else if (expr instanceof InfixExpression && !known(((InfixExpression) expr).operator)) {
+            // and, or: compiled to nil without evaluating either side
+        } else if (!(expr instanceof FunctionLiteral)) {
+            children.addAll(children(expr));
+        }
+        return children;
+    }
+
+    private static boolean known(String operator) {
+        switch (operator) {
+            case "+": case "-": case "*": case "/": case "mod":
+            case "<": case ">": case "=": case "~=":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // variables a part reads, a lambda binding one of them changes what the part means below it
+    private static ArrayList<String> free(Expression expr) {
+        ArrayList<String> names = new ArrayList<>();
+        if (expr instanceof Identifier) {
+            names.add(((Identifier) expr).value);
+        } else if (expr instanceof FunctionLiteral) {
+            for (String name : free(((FunctionLiteral) expr).body)) {
+                if (!name.equals(((FunctionLiteral) expr).parameter.value)) {
+                    names.add(name);
+                }
+            }
+        } else {
+            for (Expression child : children(expr)) {
+                names.addAll(free(child));
+            }
+        }
+        return names;
+    }
+
+    // the places replace would change
+    private int occurrences(Expression expr, int id, ArrayList<String> names) {
+        if (!(expr instanceof Identifier) && !literal(expr) && shape(expr).id == id) {
+            return 1;
+        } else if (expr instanceof FunctionLiteral && names.contains(((FunctionLiteral) expr).parameter.value)) {
+            return 0;
+        }
+        int count = 0;
+        for (Expression child : children(expr)) {
+            count += occurrences(child, id, names);
+        }
+        return count;
+    }
+
+    private Expression replace(Expression expr, int id, ArrayList<String> names, Identifier temporary) {
+        if (expr == null) {
+            return null;
+        } else if (!(expr instanceof Identifier) && !literal(expr) && shape(expr).id == id) {
+            return copy(temporary);
+        } else if (expr instanceof FunctionLiteral && names.contains(((FunctionLiteral) expr).parameter.value)) {
+            return expr;
+        }
+        return rewrite(expr, child -> replace(child, id, names, temporary));
+    }
+
+    // eliminate in the lambda bodies, branches and stream tails under expr
+    private Expression nested(Expression expr, ArrayList<String> bound) {
+        shapes.remove(expr);
+        if (expr instanceof FunctionLiteral) {
+            FunctionLiteral literal = (FunctionLiteral) expr;
+            bound.add(literal.parameter.value);
+            literal.body = eliminate(literal.body, bound);
+            bound.remove(bound.size() - 1);
+            return literal;
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            e.conditional = nested(e.conditional, bound);
+            e.consequence = eliminate(e.consequence, bound);
+            e.alternative = eliminate(e.alternative, bound);
+            return e;
+        } else if (expr instanceof StreamExpr) {
+            StreamExpr e = (StreamExpr) expr;
+            e.left = nested(e.left, bound);
+            e.right = eliminate(e.right, bound);
+            return e;
+        } else if (expr instanceof InfixExpression && !known(((InfixExpression) expr).operator)) {
+            return replaceChildren(expr, child -> eliminate(child, bound));
+        }
+        return replaceChildren(expr, child -> nested(child, bound));
+    }
+
+    private interface Rewrite {
+        Expression apply(Expression child);
+    }
+
+    private static ArrayList<Expression> children(Expression expr) {
+        ArrayList<Expression> children = new ArrayList<>();
+        if (expr instanceof PrefixExpression) {
+            children.add(((PrefixExpression) expr).right);
+        } else if (expr instanceof InfixExpression) {
+            children.add(((InfixExpression) expr).left);
+            children.add(((InfixExpression) expr).right);
+        } else if (expr instanceof IfExpression) {
+            children.add(((IfExpression) expr).conditional);
+            children.add(((IfExpression) expr).consequence);
+            children.add(((IfExpression) expr).alternative);
+        } else if (expr instanceof FunctionLiteral) {
+            children.add(((FunctionLiteral) expr).body);
+        } else if (expr instanceof FunctionCall) {
+            children.add(((FunctionCall) expr).function);
+            children.add(((FunctionCall) expr).argument);
+        } else if (expr instanceof PairExpr) {
+            children.add(((PairExpr) expr).left);
+            children.add(((PairExpr) expr).right);
+        } else if (expr instanceof StreamExpr) {
+            children.add(((StreamExpr) expr).left);
+            children.add(((StreamExpr) expr).right);
+        } else if (expr instanceof CarExpr) {
+            children.add(((CarExpr) expr).list);
+        } else if (expr instanceof CdrExpr) {
+            children.add(((CdrExpr) expr).list);
+        } else if (expr instanceof MemoExpr) {
+            children.add(((MemoExpr) expr).function);
+        }
+        children.removeIf(child -> child == null);
+        return children;
+    }
+
+    // replaceChildren for replace: expr loses its shape when a child is another node now, or has lost its own
+    private Expression rewrite(Expression expr, Rewrite rewrite) {
+        ArrayList<Expression> before = children(expr);
+        replaceChildren(expr, rewrite);
+        ArrayList<Expression> after = children(expr);
+        for (int i = 0; i < after.size(); i++) {
+            if (i >= before.size() || after.get(i) != before.get(i) || !shapes.containsKey(after.get(i))) {
+                shapes.remove(expr);
+                break;
+            }
+        }
+        return expr;
+    }
+
+    // applies rewrite to every child of expr in place, in the order children lists them
+    private static Expression replaceChildren(Expression expr, Rewrite rewrite) {
+        if (expr instanceof PrefixExpression) {
+            PrefixExpression e = (PrefixExpression) expr;
+            e.right = rewrite.apply(e.right);
+        } else if (expr instanceof InfixExpression) {
+            InfixExpression e = (InfixExpression) expr;
+            e.left = rewrite.apply(e.left);
+            e.right = rewrite.apply(e.right);
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            e.conditional = rewrite.apply(e.conditional);
+            e.consequence = rewrite.apply(e.consequence);
+            if (e.alternative != null) {
+                e.alternative = rewrite.apply(e.alternative);
+            }
+        } else if (expr instanceof FunctionLiteral) {
+            FunctionLiteral e = (FunctionLiteral) expr;
+            e.body = rewrite.apply(e.body);
+        } else if (expr instanceof FunctionCall) {
+            FunctionCall e = (FunctionCall) expr;
+            e.function = rewrite.apply(e.function);
+            e.argument = rewrite.apply(e.argument);
+        } else if (expr instanceof PairExpr) {
+            PairExpr e = (PairExpr) expr;
+            e.left = rewrite.apply(e.left);
+            e.right = rewrite.apply(e.right);
+        } else if (expr instanceof StreamExpr) {
+            StreamExpr e = (StreamExpr) expr;
+            e.left = rewrite.apply(e.left);
+            e.right = rewrite.apply(e.right);
+        } else if (expr instanceof CarExpr) {
+            CarExpr e = (CarExpr) expr;
+            e.list = rewrite.apply(e.list);
+        } else if (expr instanceof CdrExpr) {
+            CdrExpr e = (CdrExpr) expr;
+            e.list = rewrite.apply(e.list);
+        } else if (expr instanceof MemoExpr) {
+            MemoExpr e = (MemoExpr) expr;
+            e.function = rewrite.apply(e.function);
+        }
+        return expr;
+    }
+}
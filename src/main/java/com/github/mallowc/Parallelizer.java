@@ -0,0 +1,183 @@
+package com.github.mallowc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Which expressions can be evaluated early, twice, at once or not at all
+ * without a difference anyone can see. puts is a statement, so evaluating
+ * an expression has only one observable effect left: a global that is not
+ * defined prints an error and ends the run. An expression is pure when
+ * nothing it can reach, through the globals it names or the functions it
+ * calls, is such an undefined global.
+ *
+ * Memo asks for more: a cached result must not outlive a define, so with
+ * once a global defined more than once counts as impure too.
+ */
+class Purity {
+    private Set<String> defined = new HashSet<>();
+    // defined globals whose value may still reach an undefined one
+    private Set<String> impure = new HashSet<>();
+    // some identifier of the program names a global that is never defined, or redefined with once
+    private boolean undefinedGlobals;
+
+    public Purity(Ast program) {
+        this(program, false);
+    }
+
+    public Purity(Ast program, boolean once) {
+        for (Statement s : program.statements) {
+            if (s instanceof DefineStmt && !defined.add(((DefineStmt) s).name.value) && once) {
+                impure.add(((DefineStmt) s).name.value);
+            }
+        }
+        undefinedGlobals = !impure.isEmpty();
+        for (Statement s : program.statements) {
+            undefinedGlobals |= !pure(Parallelizer.value(s), new ArrayList<String>());
+        }
+
+        // a call through a function value can reach any lambda, grow impure until it is stable
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Statement s : program.statements) {
+                if (s instanceof DefineStmt && !impure.contains(((DefineStmt) s).name.value)
+                        && !pure(((DefineStmt) s).value, new ArrayList<String>())) {
+                    impure.add(((DefineStmt) s).name.value);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    boolean pure(Expression expr, ArrayList<String> bound) {
+        if (expr instanceof Identifier) {
+            String name = ((Identifier) expr).value;
+            return bound.contains(name) || (defined.contains(name) && !impure.contains(name));
+        } else if (expr instanceof PrefixExpression) {
+            return pure(((PrefixExpression) expr).right, bound);
+        } else if (expr instanceof InfixExpression) {
+            return pure(((InfixExpression) expr).left, bound) && pure(((InfixExpression) expr).right, bound);
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            return pure(e.conditional, bound) && pure(e.consequence, bound) && pure(e.alternative, bound);
+        } else if (expr instanceof FunctionLiteral) {
+            FunctionLiteral literal = (FunctionLiteral) expr;
+            bound.add(literal.parameter.value);
+            boolean result = pure(literal.body, bound);
+            bound.remove(bound.size() - 1);
+            return result;
+        } else if (expr instanceof FunctionCall) {
+            Expression fn = ((FunctionCall) expr).function;
+            // a global's body was checked with its definition, a lambda's is checked here, any other function value is unknown
+            boolean known = (fn instanceof Identifier && !bound.contains(((Identifier) fn).value))
+                    || fn instanceof FunctionLiteral;
+            return (known || !undefinedGlobals) && pure(fn, bound) && pure(((FunctionCall) expr).argument, bound);
+        } else if (expr instanceof PairExpr) {
+            return pure(((PairExpr) expr).left, bound) && pure(((PairExpr) expr).right, bound);
+        } else if (expr instanceof StreamExpr) {
+            return pure(((StreamExpr) expr).left, bound) && pure(((StreamExpr) expr).right, bound);
+        } else if (expr instanceof CarExpr) {
+            return pure(((CarExpr) expr).list, bound);
+        } else if (expr instanceof CdrExpr) {
+            return pure(((CdrExpr) expr).list, bound);
+        } else if (expr instanceof MemoExpr) {
+            return pure(((MemoExpr) expr).function, bound);
+        }
+        // literals, or null left by a parse error
+        return true;
+    }
+}
+
+/*
+ * Marks the infix and pair nodes whose two operands may be evaluated at the
+ * same time for --parallel. Both operands must be pure, see Purity, and
+ * contain a call, anything smaller is not worth a task.
+ */
+public class Parallelizer {
+    private Purity purity;
+
+    public void parallelize(Ast program) {
+        purity = new Purity(program);
+        for (Statement s : program.statements) {
+            mark(value(s), new ArrayList<String>());
+        }
+    }
+
+    static Expression value(Statement s) {
+        if (s instanceof DefineStmt) {
+            return ((DefineStmt) s).value;
+        } else if (s instanceof PutsStmt) {
+            return ((PutsStmt) s).value;
+        } else if (s instanceof ExpressionStatement) {
+            return ((ExpressionStatement) s).expr;
+        }
+        return null;
+    }
+
+    private void mark(Expression expr, ArrayList<String> bound) {
+        if (expr instanceof InfixExpression) {
+            InfixExpression e = (InfixExpression) expr;
+            e.parallel = worthForking(e.left, e.right, bound);
+            mark(e.left, bound);
+            mark(e.right, bound);
+        } else if (expr instanceof PairExpr) {
+            PairExpr e = (PairExpr) expr;
+            e.parallel = worthForking(e.left, e.right, bound);
+            mark(e.left, bound);
+            mark(e.right, bound);
+        } else if (expr instanceof StreamExpr) {
+            mark(((StreamExpr) expr).left, bound);
+            mark(((StreamExpr) expr).right, bound);
+        } else if (expr instanceof PrefixExpression) {
+            mark(((PrefixExpression) expr).right, bound);
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            mark(e.conditional, bound);
+            mark(e.consequence, bound);
+            mark(e.alternative, bound);
+        } else if (expr instanceof FunctionLiteral) {
+            FunctionLiteral literal = (FunctionLiteral) expr;
+            bound.add(literal.parameter.value);
+            mark(literal.body, bound);
+            bound.remove(bound.size() - 1);
+        } else if (expr instanceof FunctionCall) {
+            mark(((FunctionCall) expr).function, bound);
+            mark(((FunctionCall) expr).argument, bound);
+        } else if (expr instanceof CarExpr) {
+            mark(((CarExpr) expr).list, bound);
+        } else if (expr instanceof CdrExpr) {
+            mark(((CdrExpr) expr).list, bound);
+        } else if (expr instanceof MemoExpr) {
+            mark(((MemoExpr) expr).function, bound);
+        }
+    }
+
+    private boolean worthForking(Expression left, Expression right, ArrayList<String> bound) {
+        return calls(left) && calls(right) && purity.pure(left, bound) && purity.pure(right, bound);
+    }
+
+    // whether evaluating expr itself calls a function, a lambda only builds a closure
+    private static boolean calls(Expression expr) {
+        if (expr instanceof FunctionCall) {
+            return true;
+        } else if (expr instanceof PrefixExpression) {
+            return calls(((PrefixExpression) expr).right);
+        } else if (expr instanceof InfixExpression) {
+            return calls(((InfixExpression) expr).left) || calls(((InfixExpression) expr).right);
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            return calls(e.conditional) || calls(e.consequence) || calls(e.alternative);
+        } else if (expr instanceof PairExpr) {
+            return calls(((PairExpr) expr).left) || calls(((PairExpr) expr).right);
+        } else if (expr instanceof StreamExpr) {
+            return calls(((StreamExpr) expr).left);
+        } else if (expr instanceof CarExpr) {
+            return calls(((CarExpr) expr).list);
+        } else if (expr instanceof CdrExpr) {
+            return calls(((CdrExpr) expr).list);
+        }
+        return false;
+    }
+}
@@ -27,13 +27,20 @@ public class Parser {
     Token current;
     Token peek;
     ArrayList<String> errors;
+    // print errors to stderr as they are found
+    boolean echo = true;
+    private boolean started = false;
     Map<TokenType, prefixParseFunction> prefixParseFunctions;
     Map<TokenType, infixParseFunction> infixParseFunctions;
     Map<TokenType, Precedence> precedences;
 
     public Parser(String source_code) {
+        this(new Lexer(source_code));
+    }
+
+    public Parser(Lexer lexer) {
         /* Initialization */
-        scanner = new Lexer(source_code);
+        scanner = lexer;
         errors = new ArrayList<String>();
         prefixParseFunctions = new Hashtable<TokenType, prefixParseFunction>();
         infixParseFunctions = new Hashtable<TokenType, infixParseFunction>();
@@ -53,8 +60,11 @@ public class Parser {
         registerPrefix(TokenType.IF, this::parseIf);
         registerPrefix(TokenType.LAMBDA, this::parseFunction);
         registerPrefix(TokenType.PAIR, this::parsePair);
+        registerPrefix(TokenType.STREAM, this::parseStream);
         registerPrefix(TokenType.CAR, this::parseCar);
         registerPrefix(TokenType.CDR, this::parseCdr);
+        registerPrefix(TokenType.MEMO, this::parseMemo);
+        registerPrefix(TokenType.NATIVE, this::parseNative);
 
         registerInfix(TokenType.PLUS, this::parseInfix);
         registerInfix(TokenType.MINUS, this::parseInfix);
@@ -89,6 +99,27 @@ public class Parser {
         return expr;
     }
 
+    private Expression parseMemo() {
+        MemoExpr expr = new MemoExpr(current);
+        advance();
+        expr.function = parseExpression(Precedence.LOWEST);
+        return expr;
+    }
+
+    private Expression parseNative() {
+        NativeExpr expr = new NativeExpr(current);
+        if (!peek(TokenType.STRING)) {
+            return null;
+        }
+        expr.name = current.literal;
+        if (Builtins.lookup(expr.name) == null) {
+            String msg = String.format("no native function %s", expr.name);
+            error(msg);
+            return null;
+        }
+        return expr;
+    }
+
     private Expression parseNil() {
         return new NilLiteral(current);
     }
@@ -131,13 +162,18 @@ public class Parser {
 
     private void peekError(TokenType t) {
         String msg = String.format("expected next token to be %s, got %s instead", t, peek.type);
-        System.err.println(msg);
-        errors.add(msg);
+        error(msg);
     }
 
     private void noPrefixError(TokenType t) {
         String msg = String.format("no prefix parse function for %s", t);
-        System.err.println(msg);
+        error(msg);
+    }
+
+    private void error(String msg) {
+        if (echo) {
+            System.err.println(msg);
+        }
         errors.add(msg);
     }
 
@@ -187,6 +223,9 @@ public class Parser {
                 return parseDefineStatement();
             case PUTS:
                 return parsePuts();
+            case INCLUDE:
+            case PRAGMA:
+                return parseDirective();
             default:
                 return parseExpressionStatement();
         }
@@ -207,6 +246,9 @@ public class Parser {
 
         advance();
         stmt.value = parseExpression(Precedence.LOWEST);
+        if (stmt.value instanceof MemoExpr) {
+            ((MemoExpr) stmt.value).name = stmt.name.value;
+        }
 
         if (peekIs(TokenType.END)) {
             advance();
@@ -323,6 +365,16 @@ public class Parser {
 
     }
 
+    // include "<lib>" and pragma "<setting>" only reach the parser in --stream mode
+    DirectiveStmt parseDirective() {
+        DirectiveStmt stmt = new DirectiveStmt(current);
+        if (!peek(TokenType.STRING)) {
+            return null;
+        }
+        stmt.argument = current.literal;
+        return stmt;
+    }
+
     PutsStmt parsePuts() {
         PutsStmt stmt = new PutsStmt(current);
         advance();
@@ -339,20 +391,54 @@ public class Parser {
         return expr;
     }
 
+    StreamExpr parseStream() {
+        StreamExpr expr = new StreamExpr(current);
+        advance();
+        expr.left = parseExpression(Precedence.LOWEST);
+        advance();
+        expr.right = parseExpression(Precedence.LOWEST);
+        return expr;
+    }
+
 
 
     /* END PARSE FUNCTIONS */
 
     public Ast parseProgram() {
+        ParseEvent event = new ParseEvent();
+        event.begin();
         Ast program = new Ast();
-        while (current.type != TokenType.EOF) {
+        Statement stmt;
+        while ((stmt = nextStatement()) != null) {
+            program.statements.add(stmt);
+        }
+        if (event.shouldCommit()) {
+            event.statements = program.statements.size();
+            event.errors = errors.size();
+            event.commit();
+        }
+        return program;
+    }
+
+    /*
+     * Next top-level statement, or null at the end of the input. Moving past
+     * the previous statement is left to this call, so a statement is handed
+     * out as soon as its last token and one token of lookahead are read.
+     */
+    public Statement nextStatement() {
+        while (true) {
+            if (started) {
+                advance();
+            }
+            started = true;
+            if (current.type == TokenType.EOF) {
+                return null;
+            }
             Statement stmt = parseStatement();
             if (stmt != null) {
-                program.statements.add(stmt);
+                return stmt;
             }
-            advance();
         }
-        return program;
     }
 
 }
@@ -1,66 +1,193 @@
 package com.github.mallowc;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
+/*
+ * Loads a program and everything it includes in one scan per file. Block
+ * comments are dropped, pragma "<setting>" is collected and removed, and
+ * include "<lib>" is replaced by $MALLOW_PATH/std/<lib>, itself scanned the
+ * same way. Every file is included at most once per run, a file that
+ * includes itself through a chain of includes is an error. String literals
+ * are copied untouched.
+ */
 public class Preprocessor {
-    String source;
+    Path path;
+    Charset charset;
+    // settings requested by the program itself, e.g. pragma "lazy"
+    Set<String> pragmas = new HashSet<>();
+    // a missing file is an error instead of a message on report
+    boolean strict = false;
+    PrintStream report = System.out;
+    private Set<Path> included = new HashSet<>();
+    private ArrayList<Path> expanding = new ArrayList<>();
+
     public Preprocessor(String s) {
-        source = read_file(s);
+        this(s, StandardCharsets.UTF_8);
     }
 
-    private static String read_file(String filepath) {
-        StringBuilder output = new StringBuilder(new StringBuilder());
-        try {
-            File f = new File(filepath);
-            Scanner s = new Scanner(f);
-            while (s.hasNext()) {
-                output.append(s.next());
-                if (s.hasNextLine()) {
-                    output.append("\n");
-                }
-            }
-        } catch (FileNotFoundException e) {
-            System.out.printf("cannot find %s: No such file or directory\n", filepath);
-        }
-        return output.toString();
+    public Preprocessor(String s, Charset c) {
+        path = Paths.get(s);
+        charset = c;
     }
+
     public String include() {
-        String includePattern = "include\n\"([^\"]+)\"";
-        Pattern pattern = Pattern.compile(includePattern);
-        Matcher matcher = pattern.matcher(source);
+        StringBuilder out = new StringBuilder();
+        expand(path, out);
+        return out.toString();
+    }
 
-        // Regular expression to match block comments (/* ... */)
-        String blockCommentPattern = "/\\*.*?\\*/";
-        Pattern blockCommentPatternCompiled = Pattern.compile(blockCommentPattern, Pattern.DOTALL);  // DOTALL enables . to match newlines
-        Matcher blockCommentMatcher = blockCommentPatternCompiled.matcher(source);
+    // expanded text of $MALLOW_PATH/std/<lib>, empty if this run already included it
+    public String includeLibrary(String lib) {
+        StringBuilder out = new StringBuilder();
+        expand(library(lib), out);
+        return out.toString();
+    }
 
-        // Remove all block comments
-        source = blockCommentMatcher.replaceAll("");
+    // source with its includes expanded, for programs that are not read from a file
+    public String includeText(String source) {
+        StringBuilder out = new StringBuilder(source.length());
+        scan(CharBuffer.wrap(source.toCharArray()), out);
+        return out.toString();
+    }
 
-        StringBuilder expandedCode = new StringBuilder();
-        int lastMatchEnd = 0;
+    // treat lib as included already, e.g. because its definitions are preloaded
+    public void skip(String lib) {
+        included.add(library(lib).toAbsolutePath().normalize());
+    }
 
-        while (matcher.find()) {
-            expandedCode.append(source, lastMatchEnd, matcher.start());
+    private static Path library(String lib) {
+        return Paths.get(String.valueOf(System.getenv("MALLOW_PATH")), "std", lib);
+    }
 
-            String libName = matcher.group(1);
+    private void expand(Path file, StringBuilder out) {
+        Path key = file.toAbsolutePath().normalize();
+        if (expanding.contains(key)) {
+            StringBuilder chain = new StringBuilder();
+            for (Path p : expanding.subList(expanding.indexOf(key), expanding.size())) {
+                chain.append(p.getFileName()).append(" -> ");
+            }
+            throw new MallowError("include cycle: " + chain + key.getFileName());
+        }
+        if (!included.add(key)) {
+            return;
+        }
 
+        CharBuffer text = read(file);
+        if (text == null && strict) {
+            throw new MallowError("cannot find " + file + ": No such file or directory");
+        } else if (text == null) {
+            report.printf("cannot find %s: No such file or directory\n", file);
+            return;
+        }
+        expanding.add(key);
+        out.ensureCapacity(out.length() + text.remaining());
+        scan(text, out);
+        expanding.remove(expanding.size() - 1);
+    }
 
-            String std_path = System.getenv("MALLOW_PATH");
-            expandedCode.append(read_file(std_path + "/std/" + libName));
+    private CharBuffer read(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
-            // Update the position after the matched include
-            lastMatchEnd = matcher.end();
+    private void scan(CharBuffer buffer, StringBuilder out) {
+        char[] text = buffer.array();
+        int end = buffer.arrayOffset() + buffer.limit();
+        int begin = buffer.arrayOffset() + buffer.position();
+        int copied = begin;
+        int i = begin;
+        while (i < end) {
+            char c = text[i];
+            if (c == '"') {
+                i = indexOf(text, end, "\"", i + 1);
+                i = i < 0 ? end : i + 1;
+            } else if (c == '/' && i + 1 < end && text[i + 1] == '*') {
+                int close = indexOf(text, end, "*/", i + 2);
+                if (close < 0) {
+                    // unterminated, leave it for the lexer
+                    i = end;
+                } else {
+                    out.append(text, copied, i - copied);
+                    i = close + 2;
+                    copied = i;
+                }
+            } else if ((c == 'i' || c == 'p') && (i == begin || !isIdentifierPart(text[i - 1]))) {
+                int name = directive(text, end, i, c == 'i' ? "include" : "pragma");
+                if (name < 0) {
+                    i++;
+                    continue;
+                }
+                int close = indexOf(text, end, "\"", name);
+                String argument = new String(text, name, close - name);
+                out.append(text, copied, i - copied);
+                i = close + 1;
+                copied = i;
+                if (c == 'p') {
+                    pragmas.add(argument);
+                } else {
+                    expand(library(argument), out);
+                }
+            } else {
+                i++;
+            }
         }
+        out.append(text, copied, end - copied);
+    }
 
-        expandedCode.append(source, lastMatchEnd, source.length());
+    // start of the quoted argument if text[at] begins `<word> "...`, -1 otherwise
+    private static int directive(char[] text, int end, int at, String word) {
+        int i = at;
+        for (int k = 0; k < word.length(); k++, i++) {
+            if (i >= end || text[i] != word.charAt(k)) {
+                return -1;
+            }
+        }
+        int spaces = i;
+        while (i < end && Character.isWhitespace(text[i])) {
+            i++;
+        }
+        if (i == spaces || i >= end || text[i] != '"') {
+            return -1;
+        }
+        int close = indexOf(text, end, "\"", i + 1);
+        return close > i + 1 ? i + 1 : -1;
+    }
+
+    // needles are at most two characters
+    private static int indexOf(char[] text, int end, String needle, int from) {
+        char first = needle.charAt(0);
+        for (int i = from; i <= end - needle.length(); i++) {
+            if (text[i] == first && (needle.length() == 1 || text[i + 1] == needle.charAt(1))) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        return expandedCode.toString();
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetter(c) || Character.isDigit(c) || c == '?';
     }
 }
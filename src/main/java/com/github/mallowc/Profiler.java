@@ -0,0 +1,210 @@
+package com.github.mallowc;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/*
+ * --profile: calls, wall time and allocations per function bound by
+ * define. The Compiler wraps the body of each such function in a
+ * ProfiledCode that reports to enter and exit, and a native bound by
+ * define in a builtin doing the same, so without the flag no function runs
+ * any code it did not run before. The check in allocated(),
+ * made where MallowObjects are constructed, is on a constant the JIT folds
+ * away, so it costs nothing either.
+ *
+ * Inclusive time counts a recursive function once, from its outermost call
+ * to its return. Self time and allocations go to the function running at
+ * the time, so anonymous lambdas, and builtins reached other than through
+ * their define, count towards the named function that called them, and a tail call is made by whoever the
+ * function returned to. A memoized function only counts the calls that
+ * miss the cache.
+ *
+ * Calls are also kept as a tree of call paths, a function calling itself
+ * directly staying in the one node, and written out as folded stacks: one
+ * line per path with the self time in microseconds spent there, the input
+ * flamegraph.pl expects. Everything runs on one thread, not with --parallel.
+ */
+class Profiler {
+    static final String TOP_LEVEL = "(top level)";
+    // Main sets mallow.profile before the first MallowObject is made, a constant after that
+    static final boolean ON = Boolean.getBoolean("mallow.profile");
+
+    // the profiler of this run, null when not profiling
+    static Profiler current;
+
+    final LinkedHashMap<String, Function> functions = new LinkedHashMap<>();
+    final Node root = new Node(null);
+    Node top = root;
+    // the calls in progress: the node each returns to, when it started, time spent in its callees
+    private Node[] callers = new Node[64];
+    private long[] starts = new long[64];
+    private long[] inner = new long[64];
+    private int depth = 1;
+
+    static class Function {
+        final String name;
+        long calls;
+        long inclusive;
+        long self;
+        long allocations;
+        // calls in progress, only the outermost adds to inclusive
+        int active;
+
+        Function(String n) {
+            name = n;
+        }
+    }
+
+    static class Node {
+        final Function function;
+        HashMap<Function, Node> children;
+        long self;
+        long allocations;
+
+        Node(Function f) {
+            function = f;
+        }
+
+        Node child(Function f) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(f, Node::new);
+        }
+    }
+
+    public Profiler() {
+        starts[0] = System.nanoTime();
+    }
+
+    // one per name, shared by every function defined under it
+    Function function(String name) {
+        return functions.computeIfAbsent(name, Function::new);
+    }
+
+    // builtin with a body that reports to enter and exit, and so do its partial applications
+    MallowBuiltin profiled(String name, MallowBuiltin builtin) {
+        Function function = function(name);
+        MallowBuiltin.Body body = builtin.body;
+        return new MallowBuiltin(builtin.name, builtin.arity, (evaluator, arguments) -> {
+            enter(function);
+            try {
+                return body.apply(evaluator, arguments);
+            } finally {
+                exit();
+            }
+        }, builtin.arguments);
+    }
+
+    static void allocated() {
+        if (ON && current != null) {
+            current.top.allocations++;
+        }
+    }
+
+    void enter(Function function) {
+        if (depth == starts.length) {
+            callers = Arrays.copyOf(callers, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+            inner = Arrays.copyOf(inner, depth * 2);
+        }
+        callers[depth] = top;
+        inner[depth] = 0;
+        if (top.function != function) {
+            top = top.child(function);
+        }
+        function.calls++;
+        function.active++;
+        starts[depth++] = System.nanoTime();
+    }
+
+    void exit() {
+        long elapsed = System.nanoTime() - starts[--depth];
+        top.self += elapsed - inner[depth];
+        inner[depth - 1] += elapsed;
+        if (--top.function.active == 0) {
+            top.function.inclusive += elapsed;
+        }
+        top = callers[depth];
+    }
+
+    // stops the clock of the top level, call once when the program is done
+    void finish() {
+        root.self += System.nanoTime() - starts[0] - inner[0];
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            if (node.function != null) {
+                node.function.self += node.self;
+                node.function.allocations += node.allocations;
+            }
+            if (node.children != null) {
+                node.children.values().forEach(pending::push);
+            }
+        }
+    }
+
+    // one line per function, most self time first
+    void report(PrintStream out) {
+        ArrayList<Function> sorted = new ArrayList<>(functions.values());
+        sorted.sort((a, b) -> Long.compare(b.self, a.self));
+        out.printf("%-24s %12s %14s %12s %14s\n", "function", "calls", "inclusive ms", "self ms", "allocations");
+        for (Function f : sorted) {
+            if (f.calls > 0) {
+                out.printf("%-24s %12d %14.1f %12.1f %14d\n", f.name, f.calls, f.inclusive / 1e6, f.self / 1e6,
+                        f.allocations);
+            }
+        }
+        out.printf("%-24s %12s %14s %12.1f %14d\n", TOP_LEVEL, "", "", root.self / 1e6, root.allocations);
+    }
+
+    void writeFolded(PrintWriter out) {
+        writeFolded(root, TOP_LEVEL, out);
+    }
+
+    private void writeFolded(Node node, String path, PrintWriter out) {
+        long micros = node.self / 1000;
+        if (micros > 0) {
+            out.print(path);
+            out.print(' ');
+            out.println(micros);
+        }
+        if (node.children != null) {
+            for (Node child : node.children.values()) {
+                writeFolded(child, path + ";" + child.function.name, out);
+            }
+        }
+    }
+}
+
+/*
+ * Body of a function bound by define, under --profile. The time spent in
+ * body goes to the function, see Profiler.
+ */
+class ProfiledCode extends Code {
+    final Profiler profiler;
+    final Profiler.Function function;
+    final Code body;
+
+    public ProfiledCode(Profiler p, Profiler.Function f, Code b) {
+        profiler = p;
+        function = f;
+        body = b;
+    }
+
+    @Override
+    MallowObject exec(Enviroment env) {
+        profiler.enter(function);
+        try {
+            return body.exec(env);
+        } finally {
+            profiler.exit();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.mallowc;
+
+import java.util.ArrayList;
+
+/*
+ * Assigns every Identifier a lexical address before the tree is compiled.
+ * Each FunctionLiteral opens a frame, a reference to one of its parameters
+ * gets (depth, slot) where depth counts the frames between the reference and
+ * the binding lambda. Anything not bound by an enclosing lambda is a global
+ * and keeps depth -1, to be looked up by name in the top-level Enviroment.
+ *
+ * For the tree engine a chain lambda a . lambda b . body opens a single
+ * frame [a, b], see MallowFunction, and closures are flat: below the frame
+ * of its parameters a lambda sees one more frame holding copies of the
+ * variables it uses from enclosing lambdas, listed in its captures, and
+ * then the globals. A closure keeps those values alive and nothing else of
+ * the frames it was made in. A stream tail gets the frame of copies only.
+ * The vm engine keeps one frame per lambda, each pointing to the last.
+ */
+public class Resolver {
+    ArrayList<ArrayList<String>> scopes;
+    // captures of the lambda or stream whose copies a scope holds, else null
+    ArrayList<ArrayList<Identifier>> captures;
+    final boolean flat;
+
+    public Resolver() {
+        this(false);
+    }
+
+    public Resolver(boolean f) {
+        scopes = new ArrayList<ArrayList<String>>();
+        captures = new ArrayList<ArrayList<Identifier>>();
+        flat = f;
+    }
+
+    // the lambdas of lambda a . lambda b . body, outermost first
+    static ArrayList<FunctionLiteral> chain(FunctionLiteral literal) {
+        ArrayList<FunctionLiteral> chain = new ArrayList<>();
+        chain.add(literal);
+        while (chain.get(chain.size() - 1).body instanceof FunctionLiteral) {
+            chain.add((FunctionLiteral) chain.get(chain.size() - 1).body);
+        }
+        return chain;
+    }
+
+    public void resolve(Node node) {
+        if (node instanceof Ast) {
+            for (Statement s : ((Ast) node).statements) {
+                resolve(s);
+            }
+        } else if (node instanceof ExpressionStatement) {
+            resolve(((ExpressionStatement) node).expr);
+        } else if (node instanceof DefineStmt) {
+            DefineStmt stmt = (DefineStmt) node;
+            Expression value = stmt.value instanceof MemoExpr ? ((MemoExpr) stmt.value).function : stmt.value;
+            if (value instanceof FunctionLiteral) {
+                ((FunctionLiteral) value).name = stmt.name.value;
+            }
+            resolve(stmt.value);
+        } else if (node instanceof PutsStmt) {
+            resolve(((PutsStmt) node).value);
+        } else if (node instanceof Identifier) {
+            resolveIdentifier((Identifier) node);
+        } else if (node instanceof PrefixExpression) {
+            resolve(((PrefixExpression) node).right);
+        } else if (node instanceof InfixExpression) {
+            resolve(((InfixExpression) node).left);
+            resolve(((InfixExpression) node).right);
+        } else if (node instanceof IfExpression) {
+            resolve(((IfExpression) node).conditional);
+            resolve(((IfExpression) node).consequence);
+            resolve(((IfExpression) node).alternative);
+        } else if (node instanceof FunctionLiteral) {
+            ArrayList<String> frame = new ArrayList<String>();
+            FunctionLiteral literal = (FunctionLiteral) node;
+            if (flat) {
+                literal.captures = new ArrayList<>();
+                push(new ArrayList<String>(), literal.captures);
+                for (FunctionLiteral l : chain(literal)) {
+                    frame.add(l.parameter.value);
+                    literal = l;
+                }
+            } else {
+                frame.add(literal.parameter.value);
+            }
+            push(frame, null);
+            resolve(literal.body);
+            pop();
+            if (flat) {
+                pop();
+            }
+        } else if (node instanceof FunctionCall) {
+            resolve(((FunctionCall) node).function);
+            resolve(((FunctionCall) node).argument);
+        } else if (node instanceof PairExpr) {
+            resolve(((PairExpr) node).left);
+            resolve(((PairExpr) node).right);
+        } else if (node instanceof StreamExpr) {
+            StreamExpr stream = (StreamExpr) node;
+            resolve(stream.left);
+            // the tail runs later in a frame of its own, like a lambda without parameter
+            stream.captures = flat ? new ArrayList<>() : null;
+            push(new ArrayList<String>(), stream.captures);
+            resolve(stream.right);
+            pop();
+        } else if (node instanceof CarExpr) {
+            resolve(((CarExpr) node).list);
+        } else if (node instanceof CdrExpr) {
+            resolve(((CdrExpr) node).list);
+        } else if (node instanceof MemoExpr) {
+            resolve(((MemoExpr) node).function);
+        }
+    }
+
+    private void push(ArrayList<String> frame, ArrayList<Identifier> copies) {
+        scopes.add(frame);
+        captures.add(copies);
+    }
+
+    private void pop() {
+        scopes.remove(scopes.size() - 1);
+        captures.remove(captures.size() - 1);
+    }
+
+    private void resolveIdentifier(Identifier id) {
+        id.depth = -1;
+        id.slot = -1;
+        lookup(id, scopes.size() - 1);
+    }
+
+    // address of id seen from scope top, capturing it on the way if needed
+    private boolean lookup(Identifier id, int top) {
+        for (int i = top; i >= 0; i--) {
+            ArrayList<String> frame = scopes.get(i);
+            int slot = frame.lastIndexOf(id.value);
+            if (slot < 0 && captures.get(i) != null) {
+                // resolved where the closure is made, which may capture it in turn
+                Identifier source = new Identifier(id.token, id.value);
+                if (!lookup(source, i - 1)) {
+                    return false;
+                }
+                captures.get(i).add(source);
+                frame.add(id.value);
+                slot = frame.size() - 1;
+            }
+            if (slot >= 0) {
+                id.depth = top - i;
+                id.slot = slot;
+                return true;
+            }
+        }
+        return false;
+    }
+}
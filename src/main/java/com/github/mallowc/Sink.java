@@ -0,0 +1,184 @@
+package com.github.mallowc;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+
+/*
+ * Where puts writes. Output collects in a buffer of its own and only goes
+ * to the writer when the buffer is full or on flush, which whoever runs the
+ * program does when it is done, or before anything else shows up next to
+ * the output. Only the thread running the top-level statements writes here.
+ *
+ * Like a PrintWriter it never throws: once the writer fails, on a closed
+ * pipe say, the rest of the output is dropped and the program runs on.
+ */
+class Sink {
+    static final String NEWLINE = System.lineSeparator();
+
+    final Writer out;
+    private final char[] buffer;
+    private int count;
+    private boolean failed;
+
+    public Sink(Writer w) {
+        this(w, 1 << 16);
+    }
+
+    public Sink(Writer w, int size) {
+        out = w;
+        buffer = new char[size];
+    }
+
+    // standard output, in the encoding System.out would have used
+    static Sink stdout() {
+        return new Sink(new OutputStreamWriter(System.out));
+    }
+
+    // what value Inspects to, built by the same walk puts makes
+    static String inspect(MallowObject value) {
+        StringWriter text = new StringWriter();
+        Sink sink = new Sink(text, 1024);
+        sink.write(value);
+        sink.flush();
+        return text.toString();
+    }
+
+    /*
+     * puts: a list in brackets, anything else as it Inspects, then a
+     * newline. A stream is only forced as far as it has been printed.
+     */
+    void print(MallowObject value) {
+        if (value instanceof MallowList) {
+            write('[');
+            write(value);
+            write(']');
+        } else {
+            write(value);
+        }
+        write(NEWLINE);
+    }
+
+    /*
+     * Writes what value Inspects to. The elements of a list go out one at a
+     * time, separated by spaces, a list inside a list just adds its own:
+     * MallowPair.Inspect has always read that way. Neither a long list nor
+     * one nested deep takes any stack, the rest of each list still to be
+     * written waits in pending. The tests are on the classes, never on
+     * MallowList: an instanceof an interface that fails is slow, and most
+     * items are not lists.
+     */
+    void write(MallowObject value) {
+        ArrayDeque<MallowObject> pending = new ArrayDeque<>();
+        MallowObject item = value;
+        while (true) {
+            if (item instanceof Thunk) {
+                item = ((Thunk) item).force();
+            }
+            if (item instanceof IntList) {
+                IntList list = (IntList) item;
+                for (int i = list.offset; i < list.store.capacity(); i++) {
+                    if (i > list.offset) {
+                        write(' ');
+                    }
+                    write(list.store.get(i));
+                }
+            } else if (item instanceof MallowPair) {
+                MallowPair pair = (MallowPair) item;
+                if (!(pair.right instanceof MallowNil)) {
+                    pending.push(pair.right);
+                }
+                item = pair.left;
+                continue;
+            } else if (item instanceof MallowInteger) {
+                write(((MallowInteger) item).value);
+            } else if (item instanceof MallowString) {
+                write(((MallowString) item).value);
+            } else if (item instanceof MallowStream) {
+                MallowStream stream = (MallowStream) item;
+                MallowObject rest = stream.next();
+                if (!(rest instanceof MallowNil)) {
+                    pending.push(rest);
+                }
+                item = stream.car();
+                continue;
+            } else {
+                write(item.Inspect());
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            write(' ');
+            item = pending.pop();
+        }
+    }
+
+    void write(char c) {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = c;
+    }
+
+    void write(String s) {
+        int length = s.length();
+        for (int done = 0; done < length;) {
+            if (count == buffer.length) {
+                drain();
+            }
+            int n = Math.min(length - done, buffer.length - count);
+            s.getChars(done, done + n, buffer, count);
+            count += n;
+            done += n;
+        }
+    }
+
+    // the digits go straight into the buffer, no String in between
+    void write(int value) {
+        if (value == Integer.MIN_VALUE) {
+            write(String.valueOf(value));
+            return;
+        }
+        if (buffer.length - count < 11) {
+            drain();
+        }
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+    }
+
+    void flush() {
+        drain();
+        if (!failed) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+    }
+
+    private void drain() {
+        if (!failed && count > 0) {
+            try {
+                out.write(buffer, 0, count);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+        count = 0;
+    }
+}
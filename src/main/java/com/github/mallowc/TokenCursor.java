@@ -0,0 +1,249 @@
+package com.github.mallowc;
+
+/*
+ * Scans a CharSequence one token at a time without allocating. After next()
+ * the current token is described by type, start and end, offsets into the
+ * input. For strings start and end exclude the quotes. The text of a token
+ * is only copied out when text() is called, and Lexer only does that for
+ * identifiers, numbers, strings and illegal characters, the other tokens
+ * have a fixed literal.
+ */
+public class TokenCursor {
+    final CharSequence input;
+    final int length;
+    int position;
+
+    TokenType type;
+    int start;
+    int end;
+
+    public TokenCursor(CharSequence in) {
+        input = in;
+        length = in.length();
+    }
+
+    private char charAt(int i) {
+        return i < length ? input.charAt(i) : 0;
+    }
+
+    public TokenType next() {
+        char c = charAt(position);
+        while (true) {
+            if (isWhitespace(c)) {
+                c = charAt(++position);
+            } else if (c == '/' && charAt(position + 1) == '*') {
+                // files arrive with comments stripped, streamed input does not
+                position += 2;
+                c = charAt(position);
+                while (c != 0 && !(c == '*' && charAt(position + 1) == '/')) {
+                    c = charAt(++position);
+                }
+                if (c != 0) {
+                    position += 2;
+                    c = charAt(position);
+                }
+            } else {
+                break;
+            }
+        }
+        start = position;
+
+        switch (c) {
+            case 0:
+                type = TokenType.EOF;
+                break;
+            case '"': {
+                int i = position + 1;
+                char d = charAt(i);
+                while (d != '"' && d != 0) {
+                    d = charAt(++i);
+                }
+                start = position + 1;
+                end = i;
+                position = Math.min(i + 1, length);
+                return type = TokenType.STRING;
+            }
+            case '+':
+                type = TokenType.PLUS;
+                break;
+            case '-':
+                type = TokenType.MINUS;
+                break;
+            case '.':
+                type = TokenType.DOT;
+                break;
+            case '/':
+                type = TokenType.SLASH;
+                break;
+            case '*':
+                type = TokenType.ASTERISK;
+                break;
+            case '|':
+                type = TokenType.PIPE;
+                break;
+            case '=':
+                type = TokenType.EQUAL;
+                break;
+            case '~':
+                if (charAt(position + 1) == '=') {
+                    position += 2;
+                    end = position;
+                    return type = TokenType.NOT_EQUAL;
+                }
+                type = TokenType.ILLEGAL;
+                break;
+            case '(':
+                type = TokenType.LPAREN;
+                break;
+            case ')':
+                type = TokenType.RPAREN;
+                break;
+            case '<':
+                type = TokenType.LT;
+                break;
+            case '>':
+                type = TokenType.GT;
+                break;
+            default:
+                if (isLetter(c)) {
+                    int i = position + 1;
+                    char d = charAt(i);
+                    while (isLetter(d) || isDigit(d) || d == '?') {
+                        d = charAt(++i);
+                    }
+                    position = end = i;
+                    return type = keyword(input, start, i - start);
+                } else if (isDigit(c)) {
+                    int i = position + 1;
+                    while (isDigit(charAt(i))) {
+                        i++;
+                    }
+                    position = end = i;
+                    return type = TokenType.NUMBER;
+                }
+                type = TokenType.ILLEGAL;
+                break;
+        }
+
+        // single character token, EOF stays put
+        end = Math.min(position + 1, length);
+        position = end;
+        return type;
+    }
+
+    // same answers as Character, without the table lookup for ASCII
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || (c < ' ' ? c != 0 && Character.isWhitespace(c) : c > 127 && Character.isWhitespace(c));
+    }
+
+    private static boolean isLetter(char c) {
+        char lower = (char) (c | 0x20);
+        return (lower >= 'a' && lower <= 'z') || (c > 127 && Character.isLetter(c));
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0' && c <= '9') || (c > 127 && Character.isDigit(c));
+    }
+
+    public String text() {
+        return input.subSequence(start, end).toString();
+    }
+
+    // literal shared by every token of this type, null if it depends on the input
+    static String fixedLiteral(TokenType type) {
+        switch (type) {
+            case DEFINE: return "define";
+            case AS: return "as";
+            case END: return "end";
+            case LAMBDA: return "lambda";
+            case TRUE: return "true";
+            case FALSE: return "false";
+            case NIL: return "nil";
+            case NOT: return "not";
+            case OR: return "or";
+            case AND: return "and";
+            case IF: return "if";
+            case THEN: return "then";
+            case ELSE: return "else";
+            case PUTS: return "puts";
+            case MODULO: return "mod";
+            case MEMO: return "memo";
+            case INCLUDE: return "include";
+            case PRAGMA: return "pragma";
+            case NATIVE: return "native";
+            case PAIR: return "pair";
+            case STREAM: return "stream";
+            case CAR: return "car";
+            case CDR: return "cdr";
+            case LPAREN: return "(";
+            case RPAREN: return ")";
+            case PLUS: return "+";
+            case MINUS: return "-";
+            case SLASH: return "/";
+            case ASTERISK: return "*";
+            case PIPE: return "|";
+            case EQUAL: return "=";
+            case NOT_EQUAL: return "~=";
+            case LT: return "<";
+            case GT: return ">";
+            case DOT: return ".";
+            case EOF: return "\0";
+            default: return null;
+        }
+    }
+
+    static TokenType keyword(CharSequence s, int start, int length) {
+        switch (s.charAt(start)) {
+            case 'a':
+                return is(s, start, length, "as") ? TokenType.AS
+                        : is(s, start, length, "and") ? TokenType.AND : TokenType.IDENTIFIER;
+            case 'c':
+                return is(s, start, length, "car") ? TokenType.CAR
+                        : is(s, start, length, "cdr") ? TokenType.CDR : TokenType.IDENTIFIER;
+            case 'd':
+                return is(s, start, length, "define") ? TokenType.DEFINE : TokenType.IDENTIFIER;
+            case 'e':
+                return is(s, start, length, "end") ? TokenType.END
+                        : is(s, start, length, "else") ? TokenType.ELSE : TokenType.IDENTIFIER;
+            case 'f':
+                return is(s, start, length, "false") ? TokenType.FALSE : TokenType.IDENTIFIER;
+            case 'i':
+                return is(s, start, length, "if") ? TokenType.IF
+                        : is(s, start, length, "include") ? TokenType.INCLUDE : TokenType.IDENTIFIER;
+            case 'l':
+                return is(s, start, length, "lambda") ? TokenType.LAMBDA : TokenType.IDENTIFIER;
+            case 'm':
+                return is(s, start, length, "mod") ? TokenType.MODULO
+                        : is(s, start, length, "memo") ? TokenType.MEMO : TokenType.IDENTIFIER;
+            case 'n':
+                return is(s, start, length, "nil") ? TokenType.NIL
+                        : is(s, start, length, "not") ? TokenType.NOT
+                        : is(s, start, length, "native") ? TokenType.NATIVE : TokenType.IDENTIFIER;
+            case 'o':
+                return is(s, start, length, "or") ? TokenType.OR : TokenType.IDENTIFIER;
+            case 'p':
+                return is(s, start, length, "puts") ? TokenType.PUTS
+                        : is(s, start, length, "pair") ? TokenType.PAIR
+                        : is(s, start, length, "pragma") ? TokenType.PRAGMA : TokenType.IDENTIFIER;
+            case 's':
+                return is(s, start, length, "stream") ? TokenType.STREAM : TokenType.IDENTIFIER;
+            case 't':
+                return is(s, start, length, "true") ? TokenType.TRUE
+                        : is(s, start, length, "then") ? TokenType.THEN : TokenType.IDENTIFIER;
+            default:
+                return TokenType.IDENTIFIER;
+        }
+    }
+
+    private static boolean is(CharSequence s, int start, int length, String keyword) {
+        if (length != keyword.length()) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            if (s.charAt(start + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,6 +20,10 @@ public enum TokenType {
     ELSE,
     PUTS,
     MODULO,
+    MEMO,
+    INCLUDE,
+    PRAGMA,
+    NATIVE,
 
     // Characters
     LPAREN, RPAREN,
@@ -27,6 +31,7 @@ public enum TokenType {
     PIPE,
     EQUAL, NOT_EQUAL, LT, GT,
     PAIR,
+    STREAM,
 
     // Other
     ILLEGAL,
@@ -0,0 +1,710 @@
+package com.github.mallowc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Register machine instruction set. Every instruction is an opcode word
+ * followed by its operands in the same int[]. Registers are numbered from
+ * the base of the running frame, K[k] is an entry of the constant pool.
+ */
+final class Opcode {
+    static final int LOADK = 0;      // a k      R[a] = K[k]
+    static final int LOADNIL = 1;    // a        R[a] = nil
+    static final int LOADTRUE = 2;   // a        R[a] = true
+    static final int LOADFALSE = 3;  // a        R[a] = false
+    static final int LOADNULL = 4;   // a        R[a] = null, left by a parse error
+    static final int GETVAR = 5;     // a d s    R[a] = parameter s of the frame d levels out
+    static final int GETGLOBAL = 6;  // a k      R[a] = globals[K[k]]
+    static final int SETGLOBAL = 7;  // a k      globals[K[k]] = R[a]
+    static final int ADD = 8;        // a b c    R[a] = R[b] + R[c]
+    static final int SUB = 9;
+    static final int MUL = 10;
+    static final int DIV = 11;
+    static final int MOD = 12;
+    static final int LT = 13;
+    static final int GT = 14;
+    static final int EQ = 15;
+    static final int NEQ = 16;
+    static final int NOT = 17;       // a b      R[a] = not R[b]
+    static final int NEG = 18;       // a b      R[a] = -R[b]
+    static final int JMP = 19;       // t        pc = t
+    static final int JMPF = 20;      // a t      if R[a] is falsy pc = t
+    static final int CLOSURE = 21;   // a k      R[a] = closure of prototype K[k] over the current frame
+    static final int CALL = 22;      // a f x    R[a] = R[f] applied to R[x]
+    static final int TAILCALL = 23;  // f x      return R[f] applied to R[x], reusing the frame
+    static final int RET = 24;       // a        return R[a]
+    static final int PAIR = 25;      // a b c    R[a] = pair R[b] R[c]
+    static final int CAR = 26;       // a b      R[a] = car R[b]
+    static final int CDR = 27;       // a b
+    static final int PUTS = 28;      // a        print R[a]
+    static final int MEMO = 29;      // a k      R[a] = memo R[a], named K[k]
+    static final int STREAM = 30;    // a b c    R[a] = stream R[b], tail computed by calling closure R[c]
+
+    static final String[] NAMES = {
+        "LOADK", "LOADNIL", "LOADTRUE", "LOADFALSE", "LOADNULL", "GETVAR", "GETGLOBAL", "SETGLOBAL",
+        "ADD", "SUB", "MUL", "DIV", "MOD", "LT", "GT", "EQ", "NEQ", "NOT", "NEG", "JMP", "JMPF",
+        "CLOSURE", "CALL", "TAILCALL", "RET", "PAIR", "CAR", "CDR", "PUTS", "MEMO", "STREAM",
+    };
+
+    static final int[] OPERANDS = {
+        2, 1, 1, 1, 1, 3, 2, 2,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 2, 2, 1, 2,
+        2, 3, 2, 1, 3, 2, 2, 1, 2, 3,
+    };
+
+    private Opcode() {
+    }
+}
+
+class Prototype {
+    String inspect;
+    int registers;
+    int[] code;
+
+    public Prototype(String i, int r, int[] c) {
+        inspect = i;
+        registers = r;
+        code = c;
+    }
+}
+
+/*
+ * Compiled form of a whole program. The constant pool holds integers and
+ * strings as ready made MallowObjects, global names as String, and function
+ * prototypes. Prototype 0 is the program body.
+ */
+class VmProgram {
+    static final int MAGIC = 0x4d4c564d; // "MLVM"
+
+    Object[] constants;
+    Prototype main;
+
+    public VmProgram(Object[] k, Prototype m) {
+        constants = k;
+        main = m;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        ArrayList<Prototype> protos = new ArrayList<>();
+        protos.add(main);
+        for (Object k : constants) {
+            if (k instanceof Prototype) {
+                protos.add((Prototype) k);
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(constants.length);
+        for (Object k : constants) {
+            if (k instanceof MallowInteger) {
+                out.writeByte(1);
+                out.writeInt(((MallowInteger) k).value);
+            } else if (k instanceof MallowString) {
+                out.writeByte(2);
+                out.writeUTF(((MallowString) k).value);
+            } else if (k instanceof String) {
+                out.writeByte(3);
+                out.writeUTF((String) k);
+            } else if (k instanceof MallowBuiltin) {
+                out.writeByte(5);
+                out.writeUTF(((MallowBuiltin) k).name);
+            } else {
+                out.writeByte(4);
+                out.writeInt(protos.indexOf(k));
+            }
+        }
+        out.writeInt(protos.size());
+        for (Prototype p : protos) {
+            out.writeUTF(p.inspect);
+            out.writeInt(p.registers);
+            out.writeInt(p.code.length);
+            for (int word : p.code) {
+                out.writeInt(word);
+            }
+        }
+    }
+
+    public static VmProgram readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a compiled mallow program");
+        }
+        Object[] constants = new Object[in.readInt()];
+        int[] protoIndex = new int[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            int tag = in.readByte();
+            if (tag == 1) {
+                constants[i] = MallowInteger.of(in.readInt());
+            } else if (tag == 2) {
+                constants[i] = new MallowString(in.readUTF());
+            } else if (tag == 3) {
+                constants[i] = in.readUTF();
+            } else if (tag == 5) {
+                constants[i] = Builtins.lookup(in.readUTF());
+            } else {
+                protoIndex[i] = in.readInt();
+            }
+        }
+        Prototype[] protos = new Prototype[in.readInt()];
+        for (int i = 0; i < protos.length; i++) {
+            String inspect = in.readUTF();
+            int registers = in.readInt();
+            int[] code = new int[in.readInt()];
+            for (int j = 0; j < code.length; j++) {
+                code[j] = in.readInt();
+            }
+            protos[i] = new Prototype(inspect, registers, code);
+        }
+        for (int i = 0; i < constants.length; i++) {
+            if (constants[i] == null) {
+                constants[i] = protos[protoIndex[i]];
+            }
+        }
+        return new VmProgram(constants, protos[0]);
+    }
+
+    public String disassemble() {
+        StringBuilder out = new StringBuilder();
+        disassemble(out, "main", main);
+        for (int k = 0; k < constants.length; k++) {
+            if (constants[k] instanceof Prototype) {
+                disassemble(out, "K" + k, (Prototype) constants[k]);
+            }
+        }
+        out.append("constants:\n");
+        for (int k = 0; k < constants.length; k++) {
+            Object c = constants[k];
+            String shown = c instanceof Prototype ? "<lambda " + ((Prototype) c).inspect + ">"
+                    : c instanceof String ? "name " + c
+                    : c instanceof MallowString ? "\"" + ((MallowString) c).value + "\""
+                    : ((MallowObject) c).Inspect();
+            out.append(String.format("  K%-4d %s\n", k, shown));
+        }
+        return out.toString();
+    }
+
+    private void disassemble(StringBuilder out, String name, Prototype p) {
+        out.append(String.format("%s: %d registers, %d words\n", name, p.registers, p.code.length));
+        int pc = 0;
+        while (pc < p.code.length) {
+            int op = p.code[pc];
+            out.append(String.format("  %04d  %-10s", pc, Opcode.NAMES[op]));
+            for (int i = 1; i <= Opcode.OPERANDS[op]; i++) {
+                out.append(' ').append(p.code[pc + i]);
+            }
+            if (op == Opcode.LOADK || op == Opcode.GETGLOBAL || op == Opcode.SETGLOBAL || op == Opcode.MEMO) {
+                Object k = constants[p.code[pc + 2]];
+                out.append("    ; ").append(k instanceof String ? k : ((MallowObject) k).Inspect());
+            }
+            out.append('\n');
+            pc += 1 + Opcode.OPERANDS[op];
+        }
+    }
+}
+
+class VmClosure implements MallowObject {
+    Vm vm;
+    Prototype proto;
+    Enviroment env;
+
+    public VmClosure(Vm v, Prototype p, Enviroment e) {
+        vm = v;
+        proto = p;
+        env = e;
+    }
+
+    @Override
+    public String Type() {
+        return "function";
+    }
+
+    @Override
+    public String Inspect() {
+        return "lambda x . " + proto.inspect;
+    }
+}
+
+/*
+ * Compiles a resolved Ast to VmProgram. Each expression is compiled into a target
+ * register, temporaries are allocated above it in stack order, so a
+ * prototype needs as many registers as its deepest expression.
+ */
+class VmCompiler {
+    ArrayList<Object> constants = new ArrayList<>();
+    int[] code;
+    int length;
+    int next;
+    int registers;
+
+    public VmProgram compile(Ast program) {
+        new Resolver().resolve(program);
+        Prototype main = prototype("", () -> {
+            int r = allocate();
+            for (Statement s : program.statements) {
+                statement(s, r);
+            }
+            emit(Opcode.RET, r);
+        });
+        return new VmProgram(constants.toArray(), main);
+    }
+
+    private Prototype prototype(String inspect, Runnable body) {
+        int[] savedCode = code;
+        int savedLength = length;
+        int savedNext = next;
+        int savedRegisters = registers;
+        code = new int[64];
+        length = 0;
+        next = 0;
+        registers = 0;
+
+        body.run();
+        Prototype p = new Prototype(inspect, Math.max(registers, 1), Arrays.copyOf(code, length));
+
+        code = savedCode;
+        length = savedLength;
+        next = savedNext;
+        registers = savedRegisters;
+        return p;
+    }
+
+    private int allocate() {
+        int r = next++;
+        registers = Math.max(registers, next);
+        return r;
+    }
+
+    private void free(int r) {
+        next = r;
+    }
+
+    private void emit(int... words) {
+        while (length + words.length > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        for (int w : words) {
+            code[length++] = w;
+        }
+    }
+
+    private int constant(Object value) {
+        for (int i = 0; i < constants.size(); i++) {
+            Object k = constants.get(i);
+            if (value instanceof String && value.equals(k)) {
+                return i;
+            } else if (value instanceof MallowInteger && k instanceof MallowInteger
+                    && ((MallowInteger) value).value == ((MallowInteger) k).value) {
+                return i;
+            }
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private void statement(Statement s, int r) {
+        if (s instanceof DefineStmt) {
+            expression(((DefineStmt) s).value, r, false);
+            emit(Opcode.SETGLOBAL, r, constant(((DefineStmt) s).name.value));
+        } else if (s instanceof PutsStmt) {
+            expression(((PutsStmt) s).value, r, false);
+            emit(Opcode.PUTS, r);
+        } else if (s instanceof ExpressionStatement) {
+            expression(((ExpressionStatement) s).expr, r, false);
+        }
+    }
+
+    private void expression(Expression expr, int a, boolean tail) {
+        if (expr == null) {
+            emit(Opcode.LOADNULL, a);
+        } else if (expr instanceof IntegerLiteral) {
+            emit(Opcode.LOADK, a, constant(MallowInteger.of(((IntegerLiteral) expr).value)));
+        } else if (expr instanceof StringLiteral) {
+            constants.add(new MallowString(((StringLiteral) expr).value.replace('\n', ' ')));
+            emit(Opcode.LOADK, a, constants.size() - 1);
+        } else if (expr instanceof BooleanLiteral) {
+            emit(((BooleanLiteral) expr).value ? Opcode.LOADTRUE : Opcode.LOADFALSE, a);
+        } else if (expr instanceof NilLiteral) {
+            emit(Opcode.LOADNIL, a);
+        } else if (expr instanceof Identifier) {
+            identifier((Identifier) expr, a);
+        } else if (expr instanceof PrefixExpression) {
+            PrefixExpression prefix = (PrefixExpression) expr;
+            expression(prefix.right, a, false);
+            emit(prefix.operator.equals("not") ? Opcode.NOT : Opcode.NEG, a, a);
+        } else if (expr instanceof InfixExpression) {
+            InfixExpression infix = (InfixExpression) expr;
+            expression(infix.left, a, false);
+            int b = allocate();
+            expression(infix.right, b, false);
+            emit(infixOpcode(infix.operator), a, a, b);
+            free(b);
+        } else if (expr instanceof IfExpression) {
+            IfExpression e = (IfExpression) expr;
+            expression(e.conditional, a, false);
+            emit(Opcode.JMPF, a, 0);
+            int otherwise = length - 1;
+            expression(e.consequence, a, tail);
+            emit(Opcode.JMP, 0);
+            int end = length - 1;
+            code[otherwise] = length;
+            if (e.alternative != null) {
+                expression(e.alternative, a, tail);
+            } else {
+                emit(Opcode.LOADNIL, a);
+            }
+            code[end] = length;
+        } else if (expr instanceof FunctionLiteral) {
+            FunctionLiteral literal = (FunctionLiteral) expr;
+            Prototype p = prototype(literal.body.string(), () -> {
+                int r = allocate();
+                expression(literal.body, r, true);
+                emit(Opcode.RET, r);
+            });
+            constants.add(p);
+            emit(Opcode.CLOSURE, a, constants.size() - 1);
+        } else if (expr instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) expr;
+            expression(call.function, a, false);
+            int x = allocate();
+            expression(call.argument, x, false);
+            if (tail) {
+                emit(Opcode.TAILCALL, a, x);
+            } else {
+                emit(Opcode.CALL, a, a, x);
+            }
+            free(x);
+        } else if (expr instanceof PairExpr) {
+            expression(((PairExpr) expr).left, a, false);
+            int b = allocate();
+            expression(((PairExpr) expr).right, b, false);
+            emit(Opcode.PAIR, a, a, b);
+            free(b);
+        } else if (expr instanceof StreamExpr) {
+            StreamExpr stream = (StreamExpr) expr;
+            expression(stream.left, a, false);
+            Prototype p = prototype(stream.right.string(), () -> {
+                int r = allocate();
+                expression(stream.right, r, true);
+                emit(Opcode.RET, r);
+            });
+            constants.add(p);
+            int b = allocate();
+            emit(Opcode.CLOSURE, b, constants.size() - 1);
+            emit(Opcode.STREAM, a, a, b);
+            free(b);
+        } else if (expr instanceof CarExpr) {
+            expression(((CarExpr) expr).list, a, false);
+            emit(Opcode.CAR, a, a);
+        } else if (expr instanceof CdrExpr) {
+            expression(((CdrExpr) expr).list, a, false);
+            emit(Opcode.CDR, a, a);
+        } else if (expr instanceof MemoExpr) {
+            expression(((MemoExpr) expr).function, a, false);
+            emit(Opcode.MEMO, a, constant(((MemoExpr) expr).name));
+        } else if (expr instanceof NativeExpr) {
+            constants.add(Builtins.lookup(((NativeExpr) expr).name));
+            emit(Opcode.LOADK, a, constants.size() - 1);
+        } else {
+            throw new IllegalArgumentException(expr.getClass().getSimpleName() + " is not supported by the vm engine");
+        }
+    }
+
+    private void identifier(Identifier id, int a) {
+        if (id.depth >= 0) {
+            emit(Opcode.GETVAR, a, id.depth, id.slot);
+        } else {
+            emit(Opcode.GETGLOBAL, a, constant(id.value));
+        }
+    }
+
+    private static int infixOpcode(String operator) {
+        switch (operator) {
+            case "+":
+                return Opcode.ADD;
+            case "-":
+                return Opcode.SUB;
+            case "*":
+                return Opcode.MUL;
+            case "/":
+                return Opcode.DIV;
+            case "mod":
+                return Opcode.MOD;
+            case "<":
+                return Opcode.LT;
+            case ">":
+                return Opcode.GT;
+            case "=":
+                return Opcode.EQ;
+            default:
+                return Opcode.NEQ;
+        }
+    }
+}
+
+/*
+ * Executes a VmProgram in one dispatch loop. Mallow calls push a frame on
+ * explicit arrays instead of recursing in Java, so recursion depth is only
+ * bounded by the heap. Functions that are not VmClosures of this Vm are
+ * applied through the Evaluator.
+ */
+public class Vm {
+    Evaluator evaluator;
+    Object[] constants;
+
+    public Vm(Evaluator e, VmProgram program) {
+        evaluator = e;
+        constants = program.constants;
+    }
+
+    public MallowObject run(Prototype main, Enviroment globals) {
+        return execute(main, globals);
+    }
+
+    // may return a pending TailCall, see Evaluator.applyOnce
+    MallowObject call(VmClosure fn, MallowObject argument) {
+        return execute(fn.proto, fn.env.newFrame(new MallowObject[] { argument }));
+    }
+
+    // closures of another program index a different constant pool
+    private boolean owns(MallowObject fn) {
+        return fn instanceof VmClosure && ((VmClosure) fn).vm == this;
+    }
+
+    private MallowObject execute(Prototype entry, Enviroment entryEnv) {
+        MallowObject[] regs = new MallowObject[Math.max(entry.registers, 16)];
+        // saved caller state, one entry per active call below the running frame
+        int[] returnPcs = new int[16];
+        int[] bases = new int[16];
+        int[] targets = new int[16];
+        Prototype[] protos = new Prototype[16];
+        Enviroment[] envs = new Enviroment[16];
+        int depth = 0;
+
+        Prototype proto = entry;
+        int[] code = proto.code;
+        Enviroment env = entryEnv;
+        int base = 0;
+        int pc = 0;
+
+        while (true) {
+            int op = code[pc];
+            switch (op) {
+                case Opcode.LOADK:
+                    regs[base + code[pc + 1]] = (MallowObject) constants[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Opcode.LOADNIL:
+                    regs[base + code[pc + 1]] = Evaluator.NIL;
+                    pc += 2;
+                    break;
+                case Opcode.LOADTRUE:
+                    regs[base + code[pc + 1]] = Evaluator.TRUE;
+                    pc += 2;
+                    break;
+                case Opcode.LOADFALSE:
+                    regs[base + code[pc + 1]] = Evaluator.FALSE;
+                    pc += 2;
+                    break;
+                case Opcode.LOADNULL:
+                    regs[base + code[pc + 1]] = null;
+                    pc += 2;
+                    break;
+                case Opcode.GETVAR:
+                    regs[base + code[pc + 1]] = env.get(code[pc + 2], code[pc + 3]);
+                    pc += 4;
+                    break;
+                case Opcode.GETGLOBAL: {
+                    String name = (String) constants[code[pc + 2]];
+                    MallowObject val = env.globals.get(name);
+                    if (val == null) {
+                        throw new MallowError("identifier not found " + name);
+                    }
+                    regs[base + code[pc + 1]] = val;
+                    pc += 3;
+                    break;
+                }
+                case Opcode.SETGLOBAL:
+                    env.globals.set((String) constants[code[pc + 2]], regs[base + code[pc + 1]]);
+                    pc += 3;
+                    break;
+                case Opcode.ADD:
+                case Opcode.SUB:
+                case Opcode.MUL:
+                case Opcode.DIV:
+                case Opcode.MOD:
+                case Opcode.LT:
+                case Opcode.GT:
+                    regs[base + code[pc + 1]] = arithmetic(op, regs[base + code[pc + 2]], regs[base + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.EQ:
+                    regs[base + code[pc + 1]] = Evaluator.evalEquality(regs[base + code[pc + 2]], regs[base + code[pc + 3]], true);
+                    pc += 4;
+                    break;
+                case Opcode.NEQ:
+                    regs[base + code[pc + 1]] = Evaluator.evalEquality(regs[base + code[pc + 2]], regs[base + code[pc + 3]], false);
+                    pc += 4;
+                    break;
+                case Opcode.NOT: {
+                    MallowObject value = regs[base + code[pc + 2]];
+                    regs[base + code[pc + 1]] = value == Evaluator.FALSE || value == Evaluator.NIL ? Evaluator.TRUE : Evaluator.FALSE;
+                    pc += 3;
+                    break;
+                }
+                case Opcode.NEG: {
+                    MallowObject value = regs[base + code[pc + 2]];
+                    regs[base + code[pc + 1]] = value instanceof MallowInteger
+                            ? MallowInteger.of(-((MallowInteger) value).value) : Evaluator.NIL;
+                    pc += 3;
+                    break;
+                }
+                case Opcode.JMP:
+                    pc = code[pc + 1];
+                    break;
+                case Opcode.JMPF:
+                    pc = Evaluator.isTruthy(regs[base + code[pc + 1]]) ? pc + 3 : code[pc + 2];
+                    break;
+                case Opcode.CLOSURE:
+                    regs[base + code[pc + 1]] = new VmClosure(this, (Prototype) constants[code[pc + 2]], env);
+                    pc += 3;
+                    break;
+                case Opcode.CALL: {
+                    MallowObject fn = regs[base + code[pc + 2]];
+                    MallowObject argument = regs[base + code[pc + 3]];
+                    if (!owns(fn)) {
+                        regs[base + code[pc + 1]] = evaluator.applyFunc(fn, argument);
+                        pc += 4;
+                        break;
+                    }
+                    if (depth == bases.length) {
+                        int size = depth * 2;
+                        returnPcs = Arrays.copyOf(returnPcs, size);
+                        bases = Arrays.copyOf(bases, size);
+                        targets = Arrays.copyOf(targets, size);
+                        protos = Arrays.copyOf(protos, size);
+                        envs = Arrays.copyOf(envs, size);
+                    }
+                    returnPcs[depth] = pc + 4;
+                    bases[depth] = base;
+                    targets[depth] = code[pc + 1];
+                    protos[depth] = proto;
+                    envs[depth] = env;
+                    depth++;
+
+                    VmClosure closure = (VmClosure) fn;
+                    base += proto.registers;
+                    proto = closure.proto;
+                    code = proto.code;
+                    env = closure.env.newFrame(new MallowObject[] { argument });
+                    pc = 0;
+                    if (base + proto.registers > regs.length) {
+                        regs = Arrays.copyOf(regs, (base + proto.registers) * 2);
+                    }
+                    break;
+                }
+                case Opcode.TAILCALL: {
+                    MallowObject fn = regs[base + code[pc + 1]];
+                    MallowObject argument = regs[base + code[pc + 2]];
+                    if (owns(fn)) {
+                        VmClosure closure = (VmClosure) fn;
+                        proto = closure.proto;
+                        code = proto.code;
+                        env = closure.env.newFrame(new MallowObject[] { argument });
+                        pc = 0;
+                        if (base + proto.registers > regs.length) {
+                            regs = Arrays.copyOf(regs, (base + proto.registers) * 2);
+                        }
+                        break;
+                    }
+                    if (depth == 0) {
+                        // let the caller of this body run it, as the tree engine does
+                        return new TailCall(fn, argument);
+                    }
+                    MallowObject value = evaluator.applyFunc(fn, argument);
+                    depth--;
+                    Arrays.fill(regs, base, base + proto.registers, null);
+                    pc = returnPcs[depth];
+                    base = bases[depth];
+                    proto = protos[depth];
+                    code = proto.code;
+                    env = envs[depth];
+                    envs[depth] = null;
+                    regs[base + targets[depth]] = value;
+                    break;
+                }
+                case Opcode.RET: {
+                    MallowObject value = regs[base + code[pc + 1]];
+                    if (depth == 0) {
+                        return value;
+                    }
+                    depth--;
+                    Arrays.fill(regs, base, base + proto.registers, null);
+                    pc = returnPcs[depth];
+                    base = bases[depth];
+                    proto = protos[depth];
+                    code = proto.code;
+                    env = envs[depth];
+                    envs[depth] = null;
+                    regs[base + targets[depth]] = value;
+                    break;
+                }
+                case Opcode.PAIR:
+                    regs[base + code[pc + 1]] = IntList.cons(regs[base + code[pc + 2]], regs[base + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.CAR:
+                    regs[base + code[pc + 1]] = ((MallowList) regs[base + code[pc + 2]]).car();
+                    pc += 3;
+                    break;
+                case Opcode.CDR:
+                    regs[base + code[pc + 1]] = ((MallowList) regs[base + code[pc + 2]]).cdr();
+                    pc += 3;
+                    break;
+                case Opcode.STREAM: {
+                    MallowObject delayed = regs[base + code[pc + 3]];
+                    regs[base + code[pc + 1]] = new MallowStream(regs[base + code[pc + 2]],
+                            () -> evaluator.applyFunc(delayed, Evaluator.NIL));
+                    pc += 4;
+                    break;
+                }
+                case Opcode.PUTS:
+                    env.globals.out.print(regs[base + code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case Opcode.MEMO:
+                    regs[base + code[pc + 1]] = evaluator.memoize((String) constants[code[pc + 2]], regs[base + code[pc + 1]]);
+                    pc += 3;
+                    break;
+                default:
+                    throw new IllegalStateException("bad opcode " + op + " at " + pc);
+            }
+        }
+    }
+
+    private static MallowObject arithmetic(int op, MallowObject left, MallowObject right) {
+        if (!(left instanceof MallowInteger && right instanceof MallowInteger)) {
+            return Evaluator.NIL;
+        }
+        int l = ((MallowInteger) left).value;
+        int r = ((MallowInteger) right).value;
+        switch (op) {
+            case Opcode.ADD:
+                return MallowInteger.of(l + r);
+            case Opcode.SUB:
+                return MallowInteger.of(l - r);
+            case Opcode.MUL:
+                return MallowInteger.of(l * r);
+            case Opcode.DIV:
+                return MallowInteger.of(l / r);
+            case Opcode.MOD:
+                return MallowInteger.of(l % r);
+            case Opcode.LT:
+                return Evaluator.nativeBooleanToMallowBoolean(l < r);
+            default:
+                return Evaluator.nativeBooleanToMallowBoolean(l > r);
+        }
+    }
+}